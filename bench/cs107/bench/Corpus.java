@@ -0,0 +1,86 @@
+package cs107.bench;
+
+import cs107.Helper;
+import cs107.QOISpecification;
+
+import java.util.Random;
+
+/**
+ * Generated images used by the benchmarks. Every kind stresses a different
+ * part of the "Quite Ok Image" encoder and decoder.
+ * @since 1.3
+ */
+public enum Corpus {
+
+    /**
+     * A single color : only QOI_OP_RUN chunks
+     */
+    FLAT,
+
+    /**
+     * Smooth horizontal and vertical gradients : mostly QOI_OP_DIFF and QOI_OP_LUMA chunks
+     */
+    GRADIENT,
+
+    /**
+     * Opaque random pixels : mostly QOI_OP_RGB chunks
+     */
+    NOISE,
+
+    /**
+     * Smoothed noise with flat areas, close to a photo : a mix of all the chunks
+     */
+    PHOTO,
+
+    /**
+     * Random alpha channel : mostly QOI_OP_RGBA and QOI_OP_INDEX chunks
+     */
+    ALPHA;
+
+    /**
+     * Generate an image of this kind. The same seed always gives the same image.
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param seed (long) - Seed of the random generator
+     * @return (Helper.Image) - The generated image
+     */
+    public Helper.Image generate(int width, int height, long seed){
+        var random = new Random(seed);
+        var data = new int[height][width];
+        for (var y = 0; y < height; ++y){
+            for (var x = 0; x < width; ++x){
+                data[y][x] = switch (this){
+                    case FLAT -> 0xFF_33_66_99;
+                    case GRADIENT -> argb(255, x * 255 / width, y * 255 / height, (x + y) * 255 / (width + height));
+                    case NOISE -> 0xFF_00_00_00 | random.nextInt(1 << 24);
+                    case PHOTO -> photo(data, x, y, random);
+                    case ALPHA -> argb(random.nextInt(4) * 85, x & 0xFF, y & 0xFF, random.nextInt(4));
+                };
+            }
+        }
+        var channels = this == ALPHA ? QOISpecification.RGBA : QOISpecification.RGB;
+        return Helper.generateImage(data, channels, QOISpecification.sRGB);
+    }
+
+    private static int photo(int[][] data, int x, int y, Random random){
+        if (x == 0 && y == 0)
+            return 0xFF_80_70_60;
+        var left = x > 0 ? data[y][x - 1] : data[y - 1][x];
+        var up = y > 0 ? data[y - 1][x] : left;
+        if (random.nextInt(8) == 0)
+            return left;
+        var r = clamp((((left >> 16) & 0xFF) + ((up >> 16) & 0xFF)) / 2 + random.nextInt(9) - 4);
+        var g = clamp((((left >> 8) & 0xFF) + ((up >> 8) & 0xFF)) / 2 + random.nextInt(9) - 4);
+        var b = clamp(((left & 0xFF) + (up & 0xFF)) / 2 + random.nextInt(9) - 4);
+        return argb(255, r, g, b);
+    }
+
+    private static int clamp(int value){
+        return Math.max(0, Math.min(255, value));
+    }
+
+    private static int argb(int a, int r, int g, int b){
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+
+}
@@ -0,0 +1,267 @@
+package cs107.bench;
+
+import cs107.ArrayUtils;
+import cs107.Helper;
+import cs107.QOIDecoder;
+import cs107.QOIEncoder;
+import cs107.QOISpecification;
+import cs107.QOIStreamDecoder;
+import cs107.QOIStreamEncoder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+/**
+ * Benchmarks of the "Quite Ok Image" encoder and decoder.
+ * Every benchmark is warmed up, then run for a fixed time on every {@link Corpus}.
+ * The throughput (MB/s of raw ARGB pixels, ns/pixel) and the allocation rate
+ * (bytes allocated by the benchmark thread) are reported.
+ * <p>
+ * Usage : {@code QOIBenchmark [--size WxH] [--warmup ms] [--time ms] [--filter regex] [--csv]}
+ * @since 1.3
+ */
+public final class QOIBenchmark {
+
+    // Only static methods
+    private QOIBenchmark(){}
+
+    /**
+     * Number of inputs used by the benchmarks of the atomic methods
+     */
+    private static final int OPS = 4096;
+
+    /**
+     * Consumes the results so that the JIT cannot remove the benchmarked code
+     */
+    private static volatile long sink;
+
+    /**
+     * Body of a benchmark
+     */
+    @FunctionalInterface
+    private interface Body {
+        Object run() throws IOException;
+    }
+
+    private record Case(String name, String corpus, long pixels, Body body) {}
+
+    private record Result(double nsPerOp, double bytesPerOp) {}
+
+    /**
+     * Main entry point of the benchmarks
+     * @param args (String[]) - Options, see the documentation of the class
+     */
+    public static void main(String[] args){
+        var width = 1024;
+        var height = 1024;
+        var warmup = 1000L;
+        var time = 2000L;
+        var filter = Pattern.compile(".*");
+        var csv = false;
+        for (var i = 0; i < args.length; ++i){
+            switch (args[i]){
+                case "--size" -> {
+                    var size = args[++i].split("x");
+                    width = Integer.parseInt(size[0]);
+                    height = Integer.parseInt(size[1]);
+                }
+                case "--warmup" -> warmup = Long.parseLong(args[++i]);
+                case "--time" -> time = Long.parseLong(args[++i]);
+                case "--filter" -> filter = Pattern.compile(args[++i]);
+                case "--csv" -> csv = true;
+                default -> Helper.fail("Unknown option : %s", args[i]);
+            }
+        }
+
+        var cases = new ArrayList<Case>();
+        for (var corpus : Corpus.values()){
+            imageCases(cases, corpus, width, height);
+        }
+        opCases(cases);
+
+        if (csv)
+            System.out.println("benchmark,corpus,ns/op,MB/s,ns/pixel,B/op,alloc MB/s");
+        else
+            System.out.printf("%-48s %-9s %12s %10s %10s %14s %12s%n", "Benchmark", "Corpus", "ns/op", "MB/s", "ns/pixel", "B/op", "alloc MB/s");
+        for (var c : cases){
+            if (!filter.matcher(c.name).find())
+                continue;
+            Result result;
+            try {
+                result = measure(c.body, warmup * 1_000_000, time * 1_000_000);
+            } catch (RuntimeException e){
+                System.out.printf(csv ? "%s,%s,skipped: %s%n" : "%-48s %-9s skipped: %s%n", c.name, c.corpus, e.getMessage());
+                continue;
+            }
+            var mbPerS = c.pixels * 4 / result.nsPerOp * 1e9 / 1e6;
+            var nsPerPixel = result.nsPerOp / c.pixels;
+            var allocRate = result.bytesPerOp / result.nsPerOp * 1e9 / 1e6;
+            System.out.printf(Locale.ROOT,
+                    csv ? "%s,%s,%.1f,%.1f,%.3f,%.0f,%.1f%n" : "%-48s %-9s %12.1f %10.1f %10.3f %14.0f %12.1f%n",
+                    c.name, c.corpus, result.nsPerOp, mbPerS, nsPerPixel, result.bytesPerOp, allocRate);
+        }
+    }
+
+    // ==================================================================================
+    // ==================================== CASES =======================================
+    // ==================================================================================
+
+    private static void imageCases(List<Case> cases, Corpus corpus, int width, int height){
+        var image = corpus.generate(width, height, 42);
+        var data = image.data();
+        var pixels = (long) width * height;
+        var channels = toChannels(data);
+        var file = encodeFile(image);
+        var chunks = Arrays.copyOfRange(file, QOISpecification.HEADER_SIZE, file.length - QOISpecification.QOI_EOF.length);
+        var scratch = new byte[(int) (pixels * 5)];
+        var rows = new int[height][width];
+        var name = corpus.name().toLowerCase(Locale.ROOT);
+
+        cases.add(new Case("ArrayUtils.imageToChannels", name, pixels, () -> ArrayUtils.imageToChannels(data)));
+        cases.add(new Case("ArrayUtils.channelsToImage", name, pixels, () -> ArrayUtils.channelsToImage(channels, height, width)));
+        cases.add(new Case("QOIEncoder.encodeData(byte[][])", name, pixels, () -> QOIEncoder.encodeData(channels)));
+        cases.add(new Case("QOIEncoder.encodeData(byte[][], byte[], int)", name, pixels, () -> QOIEncoder.encodeData(channels, scratch, 0)));
+        cases.add(new Case("QOIEncoder.encodeData(int[][])", name, pixels, () -> QOIEncoder.encodeData(data)));
+        cases.add(new Case("QOIEncoder.encodeData(int[][], byte[], int)", name, pixels, () -> QOIEncoder.encodeData(data, scratch, 0)));
+        cases.add(new Case("QOIEncoder.qoiFile", name, pixels, () -> QOIEncoder.qoiFile(image)));
+        cases.add(new Case("QOIStreamEncoder.encode", name, pixels, () -> {
+            QOIStreamEncoder.encode(image, OutputStream.nullOutputStream());
+            return null;
+        }));
+        cases.add(new Case("QOIDecoder.decodeData(byte[], int, int)", name, pixels, () -> QOIDecoder.decodeData(chunks, width, height)));
+        cases.add(new Case("QOIDecoder.decodeData(byte[], int[][])", name, pixels, () -> {
+            QOIDecoder.decodeData(chunks, rows);
+            return rows;
+        }));
+        cases.add(new Case("QOIDecoder.decodeQoiFile", name, pixels, () -> QOIDecoder.decodeQoiFile(file)));
+        cases.add(new Case("QOIDecoder.decodeBufferedImage", name, pixels, () -> QOIDecoder.decodeBufferedImage(file)));
+        cases.add(new Case("QOIStreamDecoder.decode", name, pixels, () -> QOIStreamDecoder.decode(new ByteArrayInputStream(file))));
+    }
+
+    private static void opCases(List<Case> cases){
+        var random = new Random(42);
+        var pixels = new byte[OPS][4];
+        var diffs = new byte[OPS][];
+        var lumas = new byte[OPS][];
+        var lumaChunks = new byte[OPS][];
+        var chunks = new byte[OPS];
+        for (var i = 0; i < OPS; ++i){
+            random.nextBytes(pixels[i]);
+            diffs[i] = new byte[]{(byte) (random.nextInt(4) - 2), (byte) (random.nextInt(4) - 2), (byte) (random.nextInt(4) - 2)};
+            var dg = random.nextInt(64) - 32;
+            lumas[i] = new byte[]{(byte) (dg + random.nextInt(16) - 8), (byte) dg, (byte) (dg + random.nextInt(16) - 8)};
+            lumaChunks[i] = new byte[]{(byte) (0b10_00_00_00 | random.nextInt(64)), (byte) random.nextInt(256)};
+            chunks[i] = (byte) random.nextInt(256);
+        }
+        var input = new byte[OPS * 5];
+        random.nextBytes(input);
+        var dst = new byte[OPS * 5];
+        var buffer = new byte[OPS * 62][4];
+
+        cases.add(op("QOIEncoder.qoiOpRGB", () -> { var n = 0L; for (var p : pixels) n += QOIEncoder.qoiOpRGB(p).length; return n; }));
+        cases.add(op("QOIEncoder.qoiOpRGB(byte[], int, byte[])", () -> { var off = 0; for (var p : pixels) off += QOIEncoder.qoiOpRGB(dst, off, p); return off; }));
+        cases.add(op("QOIEncoder.qoiOpRGBA", () -> { var n = 0L; for (var p : pixels) n += QOIEncoder.qoiOpRGBA(p).length; return n; }));
+        cases.add(op("QOIEncoder.qoiOpRGBA(byte[], int, byte[])", () -> { var off = 0; for (var p : pixels) off += QOIEncoder.qoiOpRGBA(dst, off, p); return off; }));
+        cases.add(op("QOIEncoder.qoiOpIndex", () -> { var n = 0L; for (var c : chunks) n += QOIEncoder.qoiOpIndex((byte) (c & 0x3F))[0]; return n; }));
+        cases.add(op("QOIEncoder.qoiOpIndex(byte[], int, byte)", () -> { var off = 0; for (var c : chunks) off += QOIEncoder.qoiOpIndex(dst, off, (byte) (c & 0x3F)); return off; }));
+        cases.add(op("QOIEncoder.qoiOpDiff", () -> { var n = 0L; for (var d : diffs) n += QOIEncoder.qoiOpDiff(d)[0]; return n; }));
+        cases.add(op("QOIEncoder.qoiOpDiff(byte[], int, byte[])", () -> { var off = 0; for (var d : diffs) off += QOIEncoder.qoiOpDiff(dst, off, d); return off; }));
+        cases.add(op("QOIEncoder.qoiOpLuma", () -> { var n = 0L; for (var d : lumas) n += QOIEncoder.qoiOpLuma(d)[1]; return n; }));
+        cases.add(op("QOIEncoder.qoiOpLuma(byte[], int, byte[])", () -> { var off = 0; for (var d : lumas) off += QOIEncoder.qoiOpLuma(dst, off, d); return off; }));
+        cases.add(op("QOIEncoder.qoiOpRun", () -> { var n = 0L; for (var c : chunks) n += QOIEncoder.qoiOpRun((byte) ((c & 0x3F) % 62 + 1))[0]; return n; }));
+        cases.add(op("QOIEncoder.qoiOpRun(byte[], int, byte)", () -> { var off = 0; for (var c : chunks) off += QOIEncoder.qoiOpRun(dst, off, (byte) ((c & 0x3F) % 62 + 1)); return off; }));
+        cases.add(op("QOIDecoder.decodeQoiOpRGB", () -> { var n = 0L; for (var i = 0; i < OPS; ++i) n += QOIDecoder.decodeQoiOpRGB(buffer, input, (byte) 0, i, i * 4); return n; }));
+        cases.add(op("QOIDecoder.decodeQoiOpRGBA", () -> { var n = 0L; for (var i = 0; i < OPS; ++i) n += QOIDecoder.decodeQoiOpRGBA(buffer, input, i, i * 4); return n; }));
+        cases.add(op("QOIDecoder.decodeQoiOpDiff", () -> { var n = 0L; for (var i = 0; i < OPS; ++i) n += QOIDecoder.decodeQoiOpDiff(pixels[i], (byte) (0b01_00_00_00 | (chunks[i] & 0x3F)))[0]; return n; }));
+        cases.add(op("QOIDecoder.decodeQoiOpLuma", () -> { var n = 0L; for (var i = 0; i < OPS; ++i) n += QOIDecoder.decodeQoiOpLuma(pixels[i], lumaChunks[i])[0]; return n; }));
+        cases.add(op("QOIDecoder.decodeQoiOpRun", () -> { var n = 0L; for (var i = 0; i < OPS; ++i) n += QOIDecoder.decodeQoiOpRun(buffer, pixels[i], (byte) (0b11_00_00_00 | (chunks[i] & 0x3F) % 62), i * 62); return n; }));
+    }
+
+    private static Case op(String name, LongSupplier body){
+        return new Case(name, "ops", OPS, body::getAsLong);
+    }
+
+    // ==================================================================================
+    // ================================= MEASUREMENT ====================================
+    // ==================================================================================
+
+    /**
+     * Run the body during the warmup, then measure it
+     * @throws RuntimeException if the body fails
+     */
+    private static Result measure(Body body, long warmupNs, long timeNs){
+        consume(body);
+        var start = System.nanoTime();
+        while (System.nanoTime() - start < warmupNs){
+            consume(body);
+        }
+        var allocated = allocatedBytes();
+        var ops = 0L;
+        start = System.nanoTime();
+        long elapsed;
+        do {
+            consume(body);
+            ++ops;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < timeNs);
+        var bytes = allocated < 0 ? Double.NaN : (double) (allocatedBytes() - allocated) / ops;
+        return new Result((double) elapsed / ops, bytes);
+    }
+
+    private static void consume(Body body){
+        try {
+            var result = body.run();
+            sink += result instanceof Long value ? value : System.identityHashCode(result);
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return (long) - Bytes allocated by the current thread so far, -1 if the JVM cannot tell
+     */
+    private static long allocatedBytes(){
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                && bean.isThreadAllocatedMemorySupported()){
+            return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    // ==================================================================================
+    // ================================== FIXTURES ======================================
+    // ==================================================================================
+
+    private static byte[][] toChannels(int[][] data){
+        var channels = new byte[data.length * data[0].length][];
+        var i = 0;
+        for (var row : data){
+            for (var px : row){
+                channels[i++] = new byte[]{(byte) (px >> 16), (byte) (px >> 8), (byte) px, (byte) (px >>> 24)};
+            }
+        }
+        return channels;
+    }
+
+    private static byte[] encodeFile(Helper.Image image){
+        var output = new ByteArrayOutputStream();
+        try {
+            QOIStreamEncoder.encode(image, output);
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+        return output.toByteArray();
+    }
+
+}
@@ -2,11 +2,24 @@ package cs107;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Helper class. This class contains all the methods considered to be useful
@@ -41,7 +54,9 @@ public final class Helper {
     private Helper(){}
 
     /**
-     * Record to store all the information of a given image
+     * Record to store all the information of a given image.
+     * Nothing is cached : an image used as a key of a hash based collection
+     * should be wrapped in a {@link QOIFingerprint.Key}.
      * @param data (int[][]) - ARGB stored pixels
      * @param channels (byte) - number of channels
      * @param color_space (byte) - color space
@@ -50,14 +65,20 @@ public final class Helper {
         @Override
         public boolean equals(Object obj) {
             if (obj instanceof Image im){
-                return Arrays.deepEquals(data, im.data) && (channels == im.channels) && (color_space == im.color_space);
+                if (channels != im.channels || color_space != im.color_space || data.length != im.data.length)
+                    return false;
+                for (var y = 0; y < data.length; ++y){
+                    if (!Arrays.equals(data[y], im.data[y]))
+                        return false;
+                }
+                return true;
             }else
                 return false;
         }
 
         @Override
         public int hashCode() {
-            return Arrays.deepHashCode(data);
+            return Long.hashCode(QOIFingerprint.of(this));
         }
     }
 
@@ -94,14 +115,7 @@ public final class Helper {
     public static Image readImage(String path) {
         try{
             var io = ImageIO.read(new File(path));
-            var width  = io.getWidth();
-            var height = io.getHeight();
-            var array = new int[height][width];
-            for(var x = 0; x < height;++x){
-                for(var y = 0 ;y < width; ++y){
-                    array[x][y] = io.getRGB(y, x);
-                }
-            }
+            var array = readPixels(io);
             var nbrChannels = (byte) (io.getColorModel().hasAlpha() ? 4 : 3);
             return new Image(array, nbrChannels, (byte) 0);
         }catch (IOException e){
@@ -122,11 +136,7 @@ public final class Helper {
             default -> fail("Cannot write this image, image.channels() == %d", image.channels);
         };
         var buffer = new BufferedImage(image.data[0].length, image.data.length, type);
-        for(var x = 0; x < buffer.getHeight(); ++x){
-            for(var y = 0 ; y < buffer.getWidth(); ++y){
-                buffer.setRGB(y, x, image.data[x][y]);
-            }
-        }
+        writePixels(image.data, buffer);
         var abs_path = res_folder + File.separator + path;
         try {
             ImageIO.write(buffer, "png", new File(abs_path));
@@ -135,6 +145,71 @@ public final class Helper {
         }
     }
 
+    /**
+     * Extract the ARGB packed pixels of an image.
+     * The common raster types are read straight from their data buffer,
+     * the other ones are read one row at a time through the color model.
+     * @param io (BufferedImage) - Image to read
+     * @return (int[][]) - ARGB packed pixels, one array per row
+     */
+    private static int[][] readPixels(BufferedImage io){
+        var width  = io.getWidth();
+        var height = io.getHeight();
+        var array = new int[height][width];
+        var raster = io.getRaster();
+        switch (io.getType()){
+            case BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB -> {
+                var buffer = (DataBufferInt) raster.getDataBuffer();
+                var model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+                var stride = model.getScanlineStride();
+                var base = buffer.getOffset() - raster.getSampleModelTranslateY() * stride - raster.getSampleModelTranslateX();
+                var pixels = buffer.getData();
+                var opaque = io.getType() == BufferedImage.TYPE_INT_RGB ? 0xFF_00_00_00 : 0;
+                for (var x = 0; x < height; ++x){
+                    System.arraycopy(pixels, base + x * stride, array[x], 0, width);
+                    if (opaque != 0){
+                        for (var y = 0; y < width; ++y)
+                            array[x][y] |= opaque;
+                    }
+                }
+            }
+            case BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_3BYTE_BGR -> {
+                var format = io.getType() == BufferedImage.TYPE_4BYTE_ABGR ? PixelFormat.ABGR : PixelFormat.BGR;
+                var buffer = (DataBufferByte) raster.getDataBuffer();
+                var model = (ComponentSampleModel) raster.getSampleModel();
+                var stride = model.getScanlineStride();
+                var base = buffer.getOffset()
+                        - raster.getSampleModelTranslateY() * stride
+                        - raster.getSampleModelTranslateX() * model.getPixelStride();
+                var bytes = buffer.getData();
+                for (var x = 0; x < height; ++x){
+                    format.load(bytes, base + x * stride, array[x], 0, width);
+                }
+            }
+            default -> {
+                for (var x = 0; x < height; ++x){
+                    io.getRGB(0, x, width, 1, array[x], 0, width);
+                }
+            }
+        }
+        return array;
+    }
+
+    /**
+     * Store ARGB packed pixels in an image of type TYPE_3BYTE_BGR or TYPE_4BYTE_ABGR
+     * @param data (int[][]) - ARGB packed pixels, one array per row
+     * @param buffer (BufferedImage) - Image where to store the pixels
+     */
+    private static void writePixels(int[][] data, BufferedImage buffer){
+        var format = buffer.getType() == BufferedImage.TYPE_4BYTE_ABGR ? PixelFormat.ABGR : PixelFormat.BGR;
+        var raster = buffer.getRaster();
+        var bytes = ((DataBufferByte) raster.getDataBuffer()).getData();
+        var stride = ((ComponentSampleModel) raster.getSampleModel()).getScanlineStride();
+        for (var x = 0; x < buffer.getHeight(); ++x){
+            format.store(data[x], 0, buffer.getWidth(), bytes, x * stride);
+        }
+    }
+
     // ==================================================================================
     // ======================== BINARY FILE MANIPULATION METHODS ========================
     // ==================================================================================
@@ -160,14 +235,97 @@ public final class Helper {
     public static void write(String path, byte[] content){
         var abs_path = res_folder + File.separator + path;
         try(var output = new FileOutputStream(abs_path)){
-            for (var b : content){
-                output.write(b);
-            }
+            output.write(content);
         }catch (IOException e){
             fail("An error occurred while trying to write to : \"%s\"%n", abs_path);
         }
     }
 
+    /**
+     * Write a file to the disk atomically : the content is written in a temporary file
+     * of the same folder which is then renamed, readers never see a partial file.
+     * The parts are written with a single gathering write, they are not concatenated first.
+     * A new file gets the default permissions of the system (i.e. the umask applies),
+     * a replaced file keeps its POSIX permissions.
+     * @apiNote Unlike {@link #write(String, byte[])}, the path is not relative to the folder "res/"
+     * @param path (Path) - Path to the file, replaced if it exists
+     * @param force (boolean) - true to flush the file (and the folder when the system allows it)
+     *  to the storage device before returning
+     * @param parts (ByteBuffer ...) - Content of the file, written from the position to the limit of each buffer
+     * @throws AssertionError if the path or one of the parts is null
+     * @throws IOException if the file cannot be written, the temporary file is then deleted
+     */
+    public static void writeAtomically(Path path, boolean force, ByteBuffer ... parts) throws IOException {
+        assert path != null && parts != null;
+        var remaining = 0L;
+        for (var part : parts){
+            assert part != null;
+            remaining += part.remaining();
+        }
+        var folder = path.toAbsolutePath().getParent();
+        var temp = createTemporary(folder, path.getFileName().toString());
+        try {
+            try (var channel = FileChannel.open(temp, StandardOpenOption.WRITE)){
+                while (remaining > 0){
+                    remaining -= channel.write(parts);
+                }
+                if (force)
+                    channel.force(true);
+            }
+            copyPermissions(path, temp);
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e){
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e){
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        if (force)
+            forceFolder(folder);
+    }
+
+    /**
+     * Create an empty file with a unique name next to the given one. Unlike
+     * {@link Files#createTempFile}, which restricts the file to its owner, the umask applies.
+     */
+    private static Path createTemporary(Path folder, String name) throws IOException {
+        while (true){
+            var temp = folder.resolve("." + name + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+            try {
+                Files.newByteChannel(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE).close();
+                return temp;
+            } catch (FileAlreadyExistsException e){
+                // Another writer picked the same name, try another one
+            }
+        }
+    }
+
+    /**
+     * Give the temporary file the POSIX permissions of the file it replaces, if any
+     */
+    private static void copyPermissions(Path path, Path temp) throws IOException {
+        if (!temp.getFileSystem().supportedFileAttributeViews().contains("posix") || !Files.exists(path))
+            return;
+        Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(path));
+    }
+
+    /**
+     * Flush a folder to make a rename durable. Not every system can open a folder, the flush is then skipped.
+     */
+    private static void forceFolder(Path folder) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(folder, StandardOpenOption.READ);
+        } catch (IOException e){
+            return;
+        }
+        try (channel){
+            channel.force(true);
+        }
+    }
+
     // ==================================================================================
     // ============================= ERROR MANAGEMENT METHODS ===========================
     // ==================================================================================
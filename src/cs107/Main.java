@@ -1,6 +1,33 @@
 package cs107;
 
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
 
 /**
  * Main entry point of the program.
@@ -54,23 +81,115 @@ public final class Main {
     // assert testChannelsToImage();
 
     // ========== Test QOIEncoder ==========
-    // assert testQoiHeader();
-    // assert testQoiOpRGB();
-    // assert testQoiOpRGBA();
-    // assert testQoiOpIndex();
-    // assert testQoiOpDiff();
-    // assert testQoiOpLuma();
-    // assert testQoiOpRun();
-    // assert testEncodeData();
+    assert testQoiHeader();
+    assert testQoiOpRGB();
+    assert testQoiOpRGBA();
+    assert testQoiOpIndex();
+    assert testQoiOpDiff();
+    assert testQoiOpLuma();
+    assert testQoiOpRun();
+    assert testEncodeData();
 
     // ========== Test QOIDecoder ==========
-    // assert testDecodeHeader();
-    // assert testDecodeQoiOpRGB();
-    // assert testDecodeQoiOpRGBA();
-    // assert testDecodeQoiOpDiff();
-    // assert testDecodeQoiOpLuma();
-    // assert testDecodeQoiOpRun();
-    // assert testDecodeData();
+    assert testDecodeHeader();
+    assert testDecodeQoiOpRGB();
+    assert testDecodeQoiOpRGBA();
+    assert testDecodeQoiOpDiff();
+    assert testDecodeQoiOpLuma();
+    assert testDecodeQoiOpRun();
+    assert testDecodeData();
+
+    // ========== Test the packed decoders ==========
+    assert testDecodeRunIndexesStartPixel();
+    assert testDecodeEveryChunk();
+    assert testDecodeRunAcrossRowsThenIndex();
+
+    // ========== Test the encoder ops in a buffer ==========
+    assert testQoiOpsAtOffset();
+    assert testQoiOpsFromPacked();
+
+    // ========== Test the packed encoder ==========
+    assert testEncodeRunAcrossRows();
+    assert testEncodeTransparentBlack();
+
+    // ========== Test the direct decoders ==========
+    assert testDecodeIntoRows();
+    assert testDecodeIntoRasters();
+    assert testDecodeIntoBytes();
+
+    // ========== Test the checkpoint index ==========
+    assert testCheckpointsInRun();
+    assert testCheckpointIndexBytes();
+
+    // ========== Test the region decoder ==========
+    assert testDecodeRows();
+    assert testDecodeRegionFromCheckpoint();
+
+    // ========== Test the strip container ==========
+    assert testStripContainerLayout();
+    assert testStripContainerToQoi();
+
+    // ========== Test the buffer encoder ==========
+    assert testQoiFileHeapBuffer();
+    assert testQoiFileDirectBuffer();
+    assert testQoiFileOverflow();
+
+    // ========== Test the off-heap image ==========
+    assert testOffHeapCopy();
+    assert testOffHeapMapped();
+
+    // ========== Test the mapped decoder ==========
+    assert testDecodeQoiFilePath();
+    assert testDecodeMappedWindows();
+
+    // ========== Test the atomic file encoder ==========
+    assert testQoiFileReplace();
+    assert testQoiFileUnwritable();
+
+    // ========== Test the reusable codec ==========
+    assert testReusableDecoderReset();
+    assert testReusableDecoderFailure();
+    assert testReusableEncoderReset();
+
+    // ========== Test the image cache ==========
+    assert testImageCacheEviction();
+    assert testImageCacheFile();
+    assert testImageCacheFailure();
+
+    // ========== Test the fingerprints ==========
+    assert testFingerprintBytes();
+    assert testFingerprintImage();
+    assert testFingerprintKey();
+
+    // ========== Test the probe ==========
+    assert testProbeEof();
+    assert testProbeScan();
+    assert testProbeOutput();
+
+    // ========== Test the validator ==========
+    assert testValidateLongRuns();
+    assert testValidateErrors();
+
+    // ========== Test the push decoder ==========
+    assert testPushDecoderByteByByte();
+    assert testPushDecoderNextImage();
+
+    // ========== Test the encoder snapshots ==========
+    assert testSnapshotInRun();
+    assert testSnapshotCorrupted();
+    assert testCloseIncomplete();
+
+    // ========== Test the stream decoder ==========
+    assert testStreamDecoderSplitReads();
+    assert testStreamDecoderErrors();
+
+    // ========== Test the stream encoder ==========
+    assert testStreamEncoderTargets();
+    assert testStreamEncoderLargeRows();
+    assert testStreamEncoderChannels();
+
+    // ========== Test the encoder backends ==========
+    assert testEncoderBackends();
 
     System.out.println("All the tests passes. Congratulations");
   }
@@ -120,6 +239,17 @@ public final class Main {
     return 100d * png / qoi;
   }
 
+  /**
+   * Computes the ratio of sizes which may not fit in an int, e.g. the total size of many files
+   * 
+   * @param png (long) - Size of the "PNG" files
+   * @param qoi (long) - Size of the "QOI" files
+   * @return (double) - The ratio
+   */
+  public static double ratio(long png, long qoi) {
+    return 100d * png / qoi;
+  }
+
   // ============================================================================================
   // ============================== ArrayUtils examples
   // =========================================
@@ -214,7 +344,6 @@ public final class Main {
   // =========================================
   // ============================================================================================
 
-  @SuppressWarnings("unused")
   private static boolean testQoiHeader() {
     Helper.Image image = Helper.generateImage(new int[32][64], QOISpecification.RGB, QOISpecification.sRGB);
     byte[] expected = { 113, 111, 105, 102, 0, 0, 0, 64, 0, 0, 0, 32, 3, 0 };
@@ -222,7 +351,6 @@ public final class Main {
     return Arrays.equals(expected, header);
   }
 
-  @SuppressWarnings("unused")
   private static boolean testQoiOpRGB() {
     byte[] pixel = { 100, 0, 55, 0 };
     byte[] expected = { -2, 100, 0, 55 };
@@ -230,7 +358,6 @@ public final class Main {
     return Arrays.equals(expected, encoding);
   }
 
-  @SuppressWarnings("unused")
   private static boolean testQoiOpRGBA() {
     byte[] pixel = { 100, 0, 55, 73 };
     byte[] expected = { -1, 100, 0, 55, 73 };
@@ -238,7 +365,6 @@ public final class Main {
     return Arrays.equals(expected, encoding);
   }
 
-  @SuppressWarnings("unused")
   private static boolean testQoiOpIndex() {
     byte index = 43;
     byte[] expected = { 43 };
@@ -246,7 +372,6 @@ public final class Main {
     return Arrays.equals(expected, encoding);
   }
 
-  @SuppressWarnings("unused")
   private static boolean testQoiOpDiff() {
     byte[] diff = { -2, -1, 0 };
     byte[] expected = { 70 };
@@ -254,7 +379,6 @@ public final class Main {
     return Arrays.equals(expected, encoding);
   }
 
-  @SuppressWarnings("unused")
   private static boolean testQoiOpLuma() {
     byte[] diff = { 19, 27, 20 };
     byte[] expected = { -69, 1 };
@@ -262,7 +386,6 @@ public final class Main {
     return Arrays.equals(expected, encoding);
   }
 
-  @SuppressWarnings("unused")
   private static boolean testQoiOpRun() {
     byte count = 41;
     byte[] expected = { -24 };
@@ -270,7 +393,6 @@ public final class Main {
     return Arrays.equals(expected, encoding);
   }
 
-  @SuppressWarnings("unused")
   private static boolean testEncodeData() {
     byte[][] pixels = { { 0, 0, 0, -1 }, { 0, 0, 0, -1 }, { 0, 0, 0, -1 }, { 0, -1, 0, -1 }, { -18, -20, -18, -1 },
         { 0, 0, 0, -1 }, { 100, 100, 100, -1 }, { 90, 90, 90, 90 } };
@@ -284,7 +406,6 @@ public final class Main {
   // =========================================
   // ============================================================================================
 
-  @SuppressWarnings("unused")
   private static boolean testDecodeHeader() {
     byte[] header = { 'q', 'o', 'i', 'f', 0, 0, 0, 64, 0, 0, 0, 32, 3, 0 };
     int[] decoded = QOIDecoder.decodeHeader(header);
@@ -292,7 +413,6 @@ public final class Main {
     return Arrays.equals(decoded, expected);
   }
 
-  @SuppressWarnings("unused")
   private static boolean testDecodeQoiOpRGB() {
     byte[][] buffer = new byte[2][4]; // buffer = [[0, 0, 0, 0], [0, 0, 0, 0]]
     byte[] input = { 0, 0, 0, -2, 100, 0, 55, 8, 0, 0, 0 };
@@ -304,7 +424,6 @@ public final class Main {
     return Arrays.deepEquals(expected_buffer, buffer) && (returnedValue == 3);
   }
 
-  @SuppressWarnings("unused")
   private static boolean testDecodeQoiOpRGBA() {
     byte[][] buffer = new byte[2][4];
     byte[] input = { 0, 0, 0, -2, 100, 0, 55, 8, 0, 0, 0 };
@@ -315,7 +434,6 @@ public final class Main {
     return Arrays.deepEquals(expected_buffer, buffer) && (returnedValue == 4);
   }
 
-  @SuppressWarnings("unused")
   private static boolean testDecodeQoiOpDiff() {
     byte[] previous_pixel = { 23, 117, -4, 7 };
     byte chunk = (byte) 0b01_11_11_11;
@@ -324,7 +442,6 @@ public final class Main {
     return Arrays.equals(currentPixel, expected);
   }
 
-  @SuppressWarnings("unused")
   private static boolean testDecodeQoiOpLuma() {
     byte[] previousPixel = { 23, 117, -4, 7 };
     byte[] chunk = { (byte) 0b10_10_01_01, (byte) 0b11_00_11_01 };
@@ -333,7 +450,6 @@ public final class Main {
     return Arrays.equals(expected, currentPixel);
   }
 
-  @SuppressWarnings("unused")
   private static boolean testDecodeQoiOpRun() {
     byte[][] buffer = new byte[6][4]; // Array is full of zeros
     byte[] pixel = { 1, 2, 3, 4 };
@@ -345,7 +461,6 @@ public final class Main {
     return Arrays.deepEquals(expectedBuffer, buffer) && (returnedValue == 3);
   }
 
-  @SuppressWarnings("unused")
   private static boolean testDecodeData() {
     byte[] encoding = { -62, 102, -115, -103, -76, 102, -2, 100, 100, 100, -1, 90, 90, 90, 90 };
     byte[][] expected = { { 0, 0, 0, -1 }, { 0, 0, 0, -1 }, { 0, 0, 0, -1 }, { 0, -1, 0, -1 }, { -18, -20, -18, -1 },
@@ -353,4 +468,1433 @@ public final class Main {
     return Arrays.deepEquals(expected, QOIDecoder.decodeData(encoding, 4, 2));
   }
 
-}
\ No newline at end of file
+
+  // ============================================================================================
+  // ============================== Packed decoders examples
+  // =========================================
+  // ============================================================================================
+
+  /**
+   * Build a "Quite Ok Image" file from hand written chunks
+   */
+  private static byte[] qoiFile(int width, int height, byte channels, byte... chunks) {
+    byte[] file = new byte[QOISpecification.HEADER_SIZE + chunks.length + QOISpecification.QOI_EOF.length];
+    int off = QOIEncoder.writeHeader(file, 0, width, height, channels, QOISpecification.sRGB);
+    System.arraycopy(chunks, 0, file, off, chunks.length);
+    System.arraycopy(QOISpecification.QOI_EOF, 0, file, off + chunks.length, QOISpecification.QOI_EOF.length);
+    return file;
+  }
+
+  /**
+   * Test run on a temporary file
+   */
+  @FunctionalInterface
+  private interface FileTest {
+    boolean test(Path file) throws IOException;
+  }
+
+  /**
+   * Run a test on a temporary file holding the given content, deleted afterwards
+   */
+  private static boolean withTempFile(byte[] content, FileTest test) {
+    try {
+      Path file = Files.createTempFile("main", ".qoi");
+      try {
+        Files.write(file, content);
+        return test.test(file);
+      } finally {
+        Files.deleteIfExists(file);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static boolean testDecodeRunIndexesStartPixel() {
+    // RUN(1), RGB(10, 20, 30), INDEX(53) : 53 is the hash of the start pixel (0, 0, 0, 255),
+    // which only gets in the index through the run, like in the reference decoder
+    byte[] data = { (byte) 0b11_00_00_00, -2, 10, 20, 30, 53 };
+    int[] expected = { 0xFF_00_00_00, 0xFF_0A_14_1E, 0xFF_00_00_00 };
+    int[] decoded = new int[3];
+    QOIDecoder.decodeData(data, 3, 1, decoded, 0);
+    try {
+      Helper.Image streamed = QOIStreamDecoder.decode(new ByteArrayInputStream(qoiFile(3, 1, QOISpecification.RGB, data)));
+      return Arrays.equals(expected, decoded) && Arrays.equals(expected, streamed.data()[0]);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static boolean testDecodeEveryChunk() {
+    byte[] data = {
+        0b01_00_01_11,                    // DIFF (-2, -1, +1)  : (254, 255, 1, 255)
+        (byte) 0b10_110100, 0b0101_1111,  // LUMA dg = 20, dr - dg = -3, db - dg = 7 : (15, 19, 28, 255)
+        -1, 1, 2, 3, 4,                   // RGBA : (1, 2, 3, 4)
+        -2, 9, 8, 7,                      // RGB, the alpha is kept : (9, 8, 7, 4)
+        (byte) 0b11_00_00_10,             // RUN(3)
+        5, 49, 14                         // INDEX of the LUMA, DIFF and RGBA pixels
+    };
+    int[][] expected = {
+        { 0xFF_FE_FF_01, 0xFF_0F_13_1C, 0x04_01_02_03, 0x04_09_08_07, 0x04_09_08_07 },
+        { 0x04_09_08_07, 0x04_09_08_07, 0xFF_0F_13_1C, 0xFF_FE_FF_01, 0x04_01_02_03 }
+    };
+    int[][] decoded = new int[2][5];
+    QOIDecoder.decodeData(data, decoded);
+    return Arrays.deepEquals(expected, decoded);
+  }
+
+  private static boolean testDecodeRunAcrossRowsThenIndex() {
+    byte[] data = {
+        (byte) 0b11_00_00_01,             // RUN(2) of the start pixel, which is now indexed
+        -2, 1, 2, 3,                      // RGB (1, 2, 3)
+        (byte) 0b11_00_00_01,             // RUN(2), over the end of the first row
+        53                                // INDEX of the start pixel
+    };
+    int[] expected = { 0xFF_00_00_00, 0xFF_00_00_00, 0xFF_01_02_03, 0xFF_01_02_03, 0xFF_01_02_03, 0xFF_00_00_00 };
+    int[] decoded = new int[6];
+    QOIDecoder.decodeData(data, 3, 2, decoded, 0);
+    return Arrays.equals(expected, decoded);
+  }
+
+  // ============================================================================================
+  // ============================== Encoder ops in a buffer examples
+  // =========================================
+  // ============================================================================================
+
+  private static boolean testQoiOpsAtOffset() {
+    // Every chunk at its bounds, written after 3 bytes which must be kept like the last one
+    byte[] buffer = new byte[20];
+    Arrays.fill(buffer, (byte) 0x55);
+    int off = 3;
+    off += QOIEncoder.qoiOpRGB(buffer, off, new byte[] { 100, 0, 55, 0 });
+    off += QOIEncoder.qoiOpRGBA(buffer, off, new byte[] { -1, 1, 2, -128 });
+    off += QOIEncoder.qoiOpDiff(buffer, off, new byte[] { -2, 1, 0 });
+    off += QOIEncoder.qoiOpLuma(buffer, off, new byte[] { -40, -32, -25 });
+    off += QOIEncoder.qoiOpLuma(buffer, off, new byte[] { 38, 31, 24 });
+    off += QOIEncoder.qoiOpIndex(buffer, off, (byte) 63);
+    off += QOIEncoder.qoiOpRun(buffer, off, (byte) 62);
+    byte[] expected = { 0x55, 0x55, 0x55, -2, 100, 0, 55, -1, -1, 1, 2, -128, 78, -128, 15, -65, -15, 63, -3, 0x55 };
+    return off == 19 && Arrays.equals(expected, buffer);
+  }
+
+  private static boolean testQoiOpsFromPacked() {
+    // Same chunks from ARGB packed pixels, the alpha of a "QOI_OP_RGB" is not written
+    byte[] buffer = new byte[14];
+    int off = QOIEncoder.qoiOpRGB(buffer, 0, 0x12_64_00_37);
+    off += QOIEncoder.qoiOpRGBA(buffer, off, 0x80_FF_01_02);
+    off += QOIEncoder.qoiOpDiff(buffer, off, -2, 1, 0);
+    off += QOIEncoder.qoiOpLuma(buffer, off, -40, -32, -25);
+    off += QOIEncoder.qoiOpLuma(buffer, off, 38, 31, 24);
+    byte[] expected = { -2, 100, 0, 55, -1, -1, 1, 2, -128, 78, -128, 15, -65, -15 };
+    return off == expected.length && Arrays.equals(expected, buffer);
+  }
+
+  // ============================================================================================
+  // ============================== Packed encoder examples
+  // =========================================
+  // ============================================================================================
+
+  /**
+   * Split ARGB packed rows in the pixels expected by QOIEncoder.encodeData(byte[][])
+   */
+  private static byte[][] toPixels(int[][] rows) {
+    byte[][] pixels = new byte[rows.length * rows[0].length][];
+    int i = 0;
+    for (int[] row : rows) {
+      for (int px : row) {
+        pixels[i++] = new byte[] { (byte) (px >> 16), (byte) (px >> 8), (byte) px, (byte) (px >>> 24) };
+      }
+    }
+    return pixels;
+  }
+
+  private static boolean testEncodeRunAcrossRows() {
+    // 80 start pixels over the end of the first row, then 20 pixels (1, 2, 3)
+    int[][] rows = new int[2][50];
+    Arrays.fill(rows[0], 0xFF_00_00_00);
+    Arrays.fill(rows[1], 0, 30, 0xFF_00_00_00);
+    Arrays.fill(rows[1], 30, 50, 0xFF_01_02_03);
+    byte[] expected = {
+        (byte) 0b11_111101,              // RUN(62)
+        (byte) 0b11_010001,              // RUN(18)
+        (byte) 0b10_100010, 0b0111_1001, // LUMA dg = 2, dr - dg = -1, db - dg = 1
+        (byte) 0b11_010010               // RUN(19)
+    };
+    byte[] buffer = new byte[2 + (int) QOIEncoder.maxEncodedSize(50, 2, QOISpecification.RGB)];
+    int written = QOIEncoder.encodeData(rows, buffer, 2);
+    byte[] file = QOIEncoder.qoiFile(Helper.generateImage(rows, QOISpecification.RGB, QOISpecification.sRGB));
+    return Arrays.equals(expected, QOIEncoder.encodeData(rows))
+        && written == expected.length && Arrays.equals(expected, 0, expected.length, buffer, 2, 2 + written)
+        && Arrays.equals(qoiFile(50, 2, QOISpecification.RGB, expected), file)
+        && Arrays.equals(expected, QOIEncoder.encodeData(toPixels(rows)));
+  }
+
+  private static boolean testEncodeTransparentBlack() {
+    // The index starts filled with (0, 0, 0, 0), but not with the start pixel
+    int[][] rows = {
+        { 0x00_00_00_00, 0xFF_00_00_00, 0xFF_00_00_00 },
+        { 0x00_00_00_00, 0x7F_10_20_30, 0x7F_10_20_30 }
+    };
+    byte[] expected = {
+        0,                               // INDEX(0)
+        -1, 0, 0, 0, -1,                 // RGBA : the start pixel is not in the index
+        (byte) 0b11_00_00_00,            // RUN(1)
+        0,                               // INDEX(0)
+        -1, 16, 32, 48, 127,             // RGBA
+        (byte) 0b11_00_00_00             // RUN(1), written at the end of the image
+    };
+    return Arrays.equals(expected, QOIEncoder.encodeData(rows))
+        && Arrays.equals(expected, QOIEncoder.encodeData(toPixels(rows)));
+  }
+
+  // ============================================================================================
+  // ============================== Direct decoders examples
+  // =========================================
+  // ============================================================================================
+
+  // 2 x 3 image with a run over two rows, and its chunks
+  private static final int[][] directRows = {
+      { 0x28_0A_14_1E, 0x28_0A_14_1E },
+      { 0x28_0A_14_1E, 0x28_0A_14_1E },
+      { 0x28_0B_13_1E, 0x28_0A_14_1E }
+  };
+
+  private static final byte[] directData = {
+      -1, 10, 20, 30, 40,               // RGBA : (10, 20, 30, 40)
+      (byte) 0b11_00_00_10,             // RUN(3), until the end of the second row
+      0b01_11_01_10,                    // DIFF (+1, -1, 0) : (11, 19, 30, 40)
+      12                                // INDEX of the RGBA pixel
+  };
+
+  private static boolean testDecodeIntoRows() {
+    int[] flat = new int[2 + 6 + 1];
+    Arrays.fill(flat, 0x55);
+    QOIDecoder.decodeData(directData, 2, 3, flat, 2);
+    int[] expected = { 0x55, 0x55, 0x28_0A_14_1E, 0x28_0A_14_1E, 0x28_0A_14_1E, 0x28_0A_14_1E,
+        0x28_0B_13_1E, 0x28_0A_14_1E, 0x55 };
+    int[][] rows = new int[3][2];
+    QOIDecoder.decodeData(directData, rows);
+    return Arrays.equals(expected, flat) && Arrays.deepEquals(directRows, rows);
+  }
+
+  private static boolean testDecodeIntoRasters() {
+    // A sub-image shares the raster of its parent, shifted by (1, 1)
+    BufferedImage canvas = new BufferedImage(4, 5, BufferedImage.TYPE_INT_ARGB);
+    QOIDecoder.decodeData(directData, canvas.getSubimage(1, 1, 2, 3));
+    BufferedImage abgr = new BufferedImage(2, 3, BufferedImage.TYPE_4BYTE_ABGR);
+    QOIDecoder.decodeData(directData, abgr);
+    // The file has 3 channels : the image has no alpha
+    BufferedImage file = QOIDecoder.decodeBufferedImage(qoiFile(2, 3, QOISpecification.RGB, directData));
+    boolean pixels = true;
+    for (int y = 0; y < 5; ++y) {
+      for (int x = 0; x < 4; ++x) {
+        boolean inside = x >= 1 && x < 3 && y >= 1 && y < 4;
+        pixels &= canvas.getRGB(x, y) == (inside ? directRows[y - 1][x - 1] : 0);
+      }
+    }
+    for (int y = 0; y < 3; ++y) {
+      for (int x = 0; x < 2; ++x) {
+        pixels &= abgr.getRGB(x, y) == directRows[y][x] && file.getRGB(x, y) == (directRows[y][x] | 0xFF_00_00_00);
+      }
+    }
+    return pixels && file.getType() == BufferedImage.TYPE_INT_RGB;
+  }
+
+  private static boolean testDecodeIntoBytes() {
+    byte[] bgra = new byte[1 + 6 * PixelFormat.BGRA.bytesPerPixel()];
+    QOIDecoder.decodeData(directData, 2, 3, PixelFormat.BGRA, bgra, 1);
+    byte[] expectedBgra = { 0, 30, 20, 10, 40, 30, 20, 10, 40, 30, 20, 10, 40, 30, 20, 10, 40, 30, 19, 11, 40, 30, 20, 10, 40 };
+    // The pixels are written from the position of the buffer, which is moved after them
+    ByteBuffer rgb = ByteBuffer.allocateDirect(2 + 6 * PixelFormat.RGB.bytesPerPixel());
+    rgb.position(2);
+    QOIDecoder.decodeData(directData, 2, 3, PixelFormat.RGB, rgb);
+    byte[] expectedRgb = { 10, 20, 30, 10, 20, 30, 10, 20, 30, 10, 20, 30, 11, 19, 30, 10, 20, 30 };
+    byte[] decodedRgb = new byte[expectedRgb.length];
+    boolean moved = rgb.position() == rgb.capacity();
+    rgb.position(2).get(decodedRgb);
+    return Arrays.equals(expectedBgra, bgra) && moved && Arrays.equals(expectedRgb, decodedRgb);
+  }
+
+  // ============================================================================================
+  // ============================== Checkpoint index examples
+  // =========================================
+  // ============================================================================================
+
+  // 3 x 3 image whose run crosses two checkpoints when they are 2 pixels apart, and its chunks
+  private static final int[][] checkpointRows = {
+      { 0xFF_0A_14_1E, 0xFF_0A_14_1E, 0xFF_0A_14_1E },
+      { 0xFF_0A_14_1E, 0xFF_0A_14_1E, 0xFF_08_15_1D },
+      { 0xFF_07_12_19, 0x00_07_12_19, 0xFF_0A_14_1E }
+  };
+
+  private static final byte[] checkpointData = {
+      -2, 10, 20, 30,                   // RGB : (10, 20, 30, 255) at 14
+      (byte) 0b11_00_00_11,             // RUN(4) at 18
+      0b01_00_11_01,                    // DIFF (-2, +1, -1) : (8, 21, 29, 255) at 19
+      (byte) 0b10_011101, (byte) 0b1010_0111,
+                                        // LUMA dg = -3, dr - dg = 2, db - dg = -1 : (7, 18, 25, 255) at 20
+      -1, 7, 18, 25, 0,                 // RGBA : (7, 18, 25, 0) at 22
+      9                                 // INDEX of the RGB pixel at 27
+  };
+
+  private static byte[] checkpointFile() {
+    return qoiFile(3, 3, QOISpecification.RGBA, checkpointData);
+  }
+
+  private static boolean testCheckpointsInRun() {
+    QOICheckpointIndex index = QOICheckpointIndex.build(checkpointFile(), 2);
+    QOICheckpointIndex.Checkpoint first = index.checkpointBefore(1);
+    QOICheckpointIndex.Checkpoint inRun = index.checkpointBefore(3);
+    QOICheckpointIndex.Checkpoint endOfRun = index.checkpointBefore(4);
+    QOICheckpointIndex.Checkpoint last = index.checkpointBefore(8);
+    // The checkpoints inside the run share the offset of the next chunk and keep what is left of the run
+    return index.size() == 5
+        && first.pixel() == 0 && first.offset() == 14 && first.run() == 0 && first.previous() == QOISpecification.START_PIXEL_ARGB
+        && inRun.pixel() == 2 && inRun.offset() == 19 && inRun.run() == 3 && inRun.previous() == 0xFF_0A_14_1E
+        && endOfRun.pixel() == 4 && endOfRun.offset() == 19 && endOfRun.run() == 1
+        && index.checkpointBefore(7).offset() == 20 && index.checkpointBefore(7).run() == 0
+        && last.pixel() == 8 && last.offset() == 27 && last.previous() == 0x00_07_12_19
+        && last.index()[9] == 0xFF_0A_14_1E;
+  }
+
+  private static boolean testCheckpointIndexBytes() {
+    byte[] file = checkpointFile();
+    Helper.Image image = Helper.generateImage(checkpointRows, QOISpecification.RGBA, QOISpecification.sRGB);
+    QOICheckpointIndex index = QOICheckpointIndex.build(file, 2);
+    byte[] header = { 'q', 'o', 'i', 'x', 0, 0, 0, 3, 0, 0, 0, 3, 0, 0, 0, 2, 0, 0, 0, 5, 0, 0, 0, 0, 0, 0, 0, 28 };
+    byte[] serialized = index.toBytes();
+    byte[] embedded = index.embed(file);
+    // The first checkpoint cannot be in a run
+    byte[] corrupted = serialized.clone();
+    corrupted[header.length + 8 + 4 + 3] = 1;
+    boolean rejected;
+    try {
+      QOICheckpointIndex.fromBytes(corrupted);
+      rejected = false;
+    } catch (RuntimeException e) {
+      rejected = true;
+    }
+    ForkJoinPool pool = new ForkJoinPool(2);
+    try {
+      QOICheckpointIndex copy = QOICheckpointIndex.fromBytes(serialized);
+      QOICheckpointIndex extracted = QOICheckpointIndex.extract(embedded).orElseThrow();
+      return rejected && Arrays.equals(header, 0, header.length, serialized, 0, header.length)
+          && Arrays.equals(file, 0, file.length, embedded, 0, file.length)
+          && QOICheckpointIndex.extract(file).isEmpty()
+          && index.decodeParallel(file, pool).equals(image)
+          && copy.decodeParallel(file, pool).equals(image)
+          && extracted.decodeParallel(embedded, pool).equals(image);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  // ============================================================================================
+  // ============================== Region decoder examples
+  // =========================================
+  // ============================================================================================
+
+  // 4 x 3 image whose runs cross the first row and the middle of the last one, and its chunks
+  private static final int[][] regionRows = {
+      { 0x80_C8_64_32, 0x80_C8_64_32, 0x80_C8_64_32, 0x80_C8_64_32 },
+      { 0x80_C8_64_32, 0x80_C8_64_32, 0x80_01_02_03, 0x80_02_03_04 },
+      { 0x80_02_03_04, 0x80_02_03_04, 0x80_C8_64_32, 0x80_D0_6C_3A }
+  };
+
+  private static final byte[] regionData = {
+      -1, -56, 100, 50, -128,           // RGBA : (200, 100, 50, 128)
+      (byte) 0b11_00_01_00,             // RUN(5), until the middle of the second row
+      -2, 1, 2, 3,                      // RGB, the alpha is kept : (1, 2, 3, 128)
+      0b01_11_11_11,                    // DIFF (+1, +1, +1) : (2, 3, 4, 128)
+      (byte) 0b11_00_00_01,             // RUN(2), over the first two pixels of the last row
+      42,                               // INDEX of the RGBA pixel
+      (byte) 0b10_101000, (byte) 0b1000_1000 // LUMA dg = 8, dr - dg = 0, db - dg = 0 : (208, 108, 58, 128)
+  };
+
+  private static boolean testDecodeRows() {
+    byte[] file = qoiFile(4, 3, QOISpecification.RGBA, regionData);
+    // The skipped rows end in the middle of a run
+    Helper.Image lastRows = QOIDecoder.decodeRegion(file, 1, 3);
+    Helper.Image middleRow = QOIDecoder.decodeRegion(file, 1, 2);
+    Helper.Image all = QOIDecoder.decodeRegion(file, 0, 3);
+    int[][] expectedLast = { regionRows[1], regionRows[2] };
+    int[][] expectedMiddle = { regionRows[1] };
+    return Arrays.deepEquals(expectedLast, lastRows.data()) && Arrays.deepEquals(expectedMiddle, middleRow.data())
+        && Arrays.deepEquals(regionRows, all.data());
+  }
+
+  private static boolean testDecodeRegionFromCheckpoint() {
+    byte[] file = qoiFile(4, 3, QOISpecification.RGB, regionData);
+    // Checkpoints at the pixels 0, 3, 6 and 9 : the ones at 3 and 9 are in a run
+    QOICheckpointIndex index = QOICheckpointIndex.build(file, 3);
+    Helper.Image center = QOIDecoder.decodeRegion(file, index, 1, 3, 1, 3);
+    Helper.Image lastPixel = QOIDecoder.decodeRegion(file, index, 2, 3, 3, -1);
+    Helper.Image skipped = QOIDecoder.decodeRegion(file, null, 1, 3, 1, 3);
+    int[][] expectedCenter = { { 0x80_C8_64_32, 0x80_01_02_03 }, { 0x80_02_03_04, 0x80_C8_64_32 } };
+    int[][] expectedLast = { { 0x80_D0_6C_3A } };
+    return Arrays.deepEquals(expectedCenter, center.data()) && Arrays.deepEquals(expectedLast, lastPixel.data())
+        && skipped.equals(center)
+        && center.channels() == QOISpecification.RGB && center.color_space() == QOISpecification.sRGB;
+  }
+
+  // ============================================================================================
+  // ============================== Strip container examples
+  // =========================================
+  // ============================================================================================
+
+  // 2 x 5 image whose run crosses the strips when they are 2 rows high
+  private static final int[][] stripRows = {
+      { 0xFF_0A_14_1E, 0xFF_0A_14_1E },
+      { 0xFF_0A_14_1E, 0xFF_0A_14_1E },
+      { 0xFF_0A_14_1E, 0xFF_0A_14_1E },
+      { 0xFF_0A_14_1E, 0xFF_0B_15_1F },
+      { 0xFF_0B_15_1F, 0xFF_0B_15_1F }
+  };
+
+  private static final byte[] stripContainer = {
+      'q', 'o', 'i', 's', 0, 0, 0, 2, 0, 0, 0, 5, 4, 0, 0, 0, 0, 2, 0, 0, 0, 3,
+      0, 0, 0, 0, 0, 0, 0, 54, 0, 0, 0, 0, 0, 0, 0, 59, 0, 0, 0, 0, 0, 0, 0, 65, 0, 0, 0, 0, 0, 0, 0, 70,
+      -2, 10, 20, 30, (byte) 0b11_00_00_10,               // RGB, RUN(3)
+      -2, 10, 20, 30, (byte) 0b11_00_00_01, 0b01_11_11_11, // The run restarts from a fresh state : RGB, RUN(2), DIFF
+      -2, 11, 21, 31, (byte) 0b11_00_00_00,               // The last strip has a single row : RGB, RUN(1)
+      0, 0, 0, 0, 0, 0, 0, 1
+  };
+
+  private static boolean testStripContainerLayout() {
+    Helper.Image image = Helper.generateImage(stripRows, QOISpecification.RGBA, QOISpecification.sRGB);
+    ForkJoinPool pool = new ForkJoinPool(2);
+    try {
+      // The offset of the end of the last strip is past the end of a truncated container
+      boolean rejected;
+      try {
+        QOIStripContainer.decode(Arrays.copyOf(stripContainer, 60), pool);
+        rejected = false;
+      } catch (RuntimeException e) {
+        rejected = true;
+      }
+      byte[] container = QOIStripContainer.encode(image, 2, pool);
+      // A strip higher than the image gives a single strip
+      byte[] single = QOIStripContainer.encode(image, 8, pool);
+      return Arrays.equals(stripContainer, container) && QOIStripContainer.isContainer(container)
+          && QOIStripContainer.decode(stripContainer, pool).equals(image)
+          && QOIStripContainer.decode(single, pool).equals(image) && single[21] == 1
+          && rejected;
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static boolean testStripContainerToQoi() {
+    // The runs are merged again across the strips
+    byte[] expected = qoiFile(2, 5, QOISpecification.RGBA,
+        (byte) -2, (byte) 10, (byte) 20, (byte) 30, (byte) 0b11_00_01_01, (byte) 0b01_11_11_11, (byte) 0b11_00_00_01);
+    return Arrays.equals(expected, QOIStripContainer.toQoi(stripContainer))
+        && !QOIStripContainer.isContainer(expected) && !QOIStripContainer.isContainer(new byte[4]);
+  }
+
+  // ============================================================================================
+  // ============================== Buffer encoder examples
+  // =========================================
+  // ============================================================================================
+
+  // 3 x 1 image without alpha, and its file
+  private static final int[][] bufferRows = { { 0xFF_0A_14_1E, 0xFF_0A_14_1E, 0xFF_09_14_1F } };
+
+  private static final byte[] bufferFile = qoiFile(3, 1, QOISpecification.RGB,
+      (byte) -2, (byte) 10, (byte) 20, (byte) 30, // RGB : (10, 20, 30)
+      (byte) 0b11_00_00_00,                       // RUN(1)
+      (byte) 0b01_01_10_11);                      // DIFF (-1, 0, +1) : (9, 20, 31)
+
+  private static Helper.Image bufferImage() {
+    return Helper.generateImage(bufferRows, QOISpecification.RGB, QOISpecification.sRGB);
+  }
+
+  private static boolean testQoiFileHeapBuffer() {
+    // A slice of a larger array, with enough room for the worst case, is encoded in its array
+    byte[] array = new byte[3 + (int) QOIEncoder.maxEncodedSize(3, 1, QOISpecification.RGB)];
+    ByteBuffer large = ByteBuffer.wrap(array, 2, array.length - 2).slice();
+    large.position(1);
+    int largeSize = QOIEncoder.qoiFile(bufferImage(), large);
+    // A buffer with just enough room is encoded through the stream encoder
+    ByteBuffer exact = ByteBuffer.allocate(bufferFile.length);
+    int exactSize = QOIEncoder.qoiFile(bufferImage(), exact);
+    return largeSize == bufferFile.length && large.position() == 1 + largeSize
+        && Arrays.equals(bufferFile, 0, bufferFile.length, array, 3, 3 + largeSize) && array[2] == 0
+        && exactSize == bufferFile.length && !exact.hasRemaining() && Arrays.equals(bufferFile, exact.array());
+  }
+
+  private static boolean testQoiFileDirectBuffer() {
+    ByteBuffer direct = ByteBuffer.allocateDirect(bufferFile.length + 4);
+    direct.position(4);
+    int size = QOIEncoder.qoiFile(bufferImage(), direct);
+    byte[] written = new byte[size];
+    direct.position(4);
+    direct.get(written);
+    return size == bufferFile.length && Arrays.equals(bufferFile, written);
+  }
+
+  private static boolean testQoiFileOverflow() {
+    // The position is left unchanged when the file does not fit, one byte short of the "QOI_EOF"
+    boolean unchanged = true;
+    ByteBuffer[] buffers = { ByteBuffer.allocate(bufferFile.length + 1), ByteBuffer.allocateDirect(bufferFile.length + 1) };
+    for (ByteBuffer buffer : buffers) {
+      buffer.position(2);
+      try {
+        QOIEncoder.qoiFile(bufferImage(), buffer);
+        unchanged = false;
+      } catch (BufferOverflowException e) {
+        unchanged &= buffer.position() == 2;
+      }
+    }
+    return unchanged;
+  }
+
+  // ============================================================================================
+  // ============================== Off-heap image examples
+  // =========================================
+  // ============================================================================================
+
+  // 3 x 2 image with transparent black pixels and alphas with the sign bit set, and its chunks
+  private static final int[][] offHeapRows = {
+      { 0x00_00_00_00, 0x80_FF_00_7F, 0xFF_01_02_03 },
+      { 0x80_FF_00_7F, 0x80_FF_00_7F, 0x00_00_00_00 }
+  };
+
+  private static final byte[] offHeapData = {
+      0,                                // INDEX(0) : the index starts with transparent black
+      -1, -1, 0, 127, -128,             // RGBA : (255, 0, 127, 128)
+      -1, 1, 2, 3, -1,                  // RGBA : (1, 2, 3, 255)
+      54,                               // INDEX of (255, 0, 127, 128)
+      (byte) 0b11_00_00_00,             // RUN(1)
+      0                                 // INDEX(0)
+  };
+
+  private static boolean testOffHeapCopy() {
+    Helper.Image image = Helper.generateImage(offHeapRows, QOISpecification.RGBA, QOISpecification.sRGB);
+    byte[] file = qoiFile(3, 2, QOISpecification.RGBA, offHeapData);
+    try {
+      QOIOffHeapImage copy = QOIOffHeapImage.copyOf(image);
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      QOIStreamEncoder.encode(copy, Channels.newChannel(output));
+      QOIOffHeapImage decoded = QOIStreamDecoder.decodeOffHeap(Channels.newChannel(new ByteArrayInputStream(file)));
+      int[] row = new int[3];
+      decoded.getRow(1, row);
+      // The pixels of the copy are its own
+      copy.setPixel(2, 1, 0xFF_01_02_03);
+      return Arrays.equals(file, output.toByteArray()) && decoded.toImage().equals(image)
+          && decoded.pixelCount() == 6 && decoded.width() == 3 && decoded.height() == 2
+          && decoded.getPixel(1, 0) == 0x80_FF_00_7F && Arrays.equals(offHeapRows[1], row)
+          && copy.getPixel(2, 1) == 0xFF_01_02_03 && offHeapRows[1][2] == 0;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static boolean testOffHeapMapped() {
+    // The file holds the ARGB packed pixels, alpha first
+    ByteBuffer raw = ByteBuffer.allocate(6 * Integer.BYTES);
+    for (int[] row : offHeapRows) {
+      for (int px : row) {
+        raw.putInt(px);
+      }
+    }
+    return withTempFile(new byte[0], file -> {
+      QOIOffHeapImage image = QOIOffHeapImage.map(file, 3, 2, QOISpecification.RGBA, QOISpecification.sRGB);
+      boolean cleared = image.getPixel(2, 1) == 0;
+      image.setRow(0, offHeapRows[0]);
+      image.setRow(1, offHeapRows[1]);
+      image.close();
+      image.close();
+      boolean written = Arrays.equals(raw.array(), Files.readAllBytes(file));
+      // Mapping the file again gives back its pixels
+      QOIOffHeapImage reopened = QOIOffHeapImage.map(file, 3, 2, QOISpecification.RGBA, QOISpecification.sRGB);
+      boolean read = Arrays.deepEquals(offHeapRows, reopened.toImage().data());
+      reopened.close();
+      return cleared && written && read;
+    });
+  }
+
+  // ============================================================================================
+  // ============================== Mapped decoder examples
+  // =========================================
+  // ============================================================================================
+
+  // 4 x 2 image using chunks of every size, and its chunks
+  private static final int[][] mappedRows = {
+      { 0x28_0A_14_1E, 0x28_0D_19_26, 0x28_C8_96_64, 0x28_C8_96_64 },
+      { 0x28_C8_96_64, 0x28_C9_94_64, 0x28_0A_14_1E, 0xFF_00_00_00 }
+  };
+
+  private static final byte[] mappedData = {
+      -1, 10, 20, 30, 40,               // RGBA : (10, 20, 30, 40)
+      (byte) 0b10_100101, 0b0110_1011,  // LUMA dg = 5, dr - dg = -2, db - dg = 3 : (13, 25, 38, 40)
+      -2, -56, -106, 100,               // RGB, the alpha is kept : (200, 150, 100, 40)
+      (byte) 0b11_00_00_01,             // RUN(2), across the rows
+      0b01_11_00_10,                    // DIFF (+1, -2, 0) : (201, 148, 100, 40)
+      12,                               // INDEX of the RGBA pixel
+      -1, 0, 0, 0, -1                   // RGBA : (0, 0, 0, 255)
+  };
+
+  private static boolean testDecodeQoiFilePath() {
+    Helper.Image image = Helper.generateImage(mappedRows, QOISpecification.RGBA, QOISpecification.sRGB);
+    byte[] file = qoiFile(4, 2, QOISpecification.RGBA, mappedData);
+    boolean decoded = withTempFile(file, path -> QOIDecoder.decodeQoiFile(path).equals(image));
+    // The last chunk is cut in the middle
+    boolean truncated = withTempFile(Arrays.copyOf(file, QOISpecification.HEADER_SIZE + mappedData.length - 2), path -> {
+      try {
+        QOIDecoder.decodeQoiFile(path);
+        return false;
+      } catch (RuntimeException e) {
+        return true;
+      }
+    });
+    return decoded && truncated;
+  }
+
+  private static boolean testDecodeMappedWindows() {
+    Helper.Image image = Helper.generateImage(mappedRows, QOISpecification.RGBA, QOISpecification.sRGB);
+    byte[] file = qoiFile(4, 2, QOISpecification.RGBA, mappedData);
+    byte[] badEof = file.clone();
+    badEof[file.length - 1] = 2;
+    // Every window size from the header to the whole file : the windows end inside the chunks and the "QOI_EOF"
+    boolean decoded = withTempFile(file, path -> {
+      boolean equal = true;
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+        for (int window = QOISpecification.HEADER_SIZE; window <= file.length; ++window) {
+          equal &= QOIDecoder.decodeMapped(channel, window).equals(image);
+        }
+      }
+      return equal;
+    });
+    boolean rejected = withTempFile(badEof, path -> {
+      boolean failed = true;
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+        for (int window = QOISpecification.HEADER_SIZE; window <= file.length; ++window) {
+          try {
+            QOIDecoder.decodeMapped(channel, window);
+            failed = false;
+          } catch (RuntimeException e) {
+            // Expected
+          }
+        }
+      }
+      return failed;
+    });
+    return decoded && rejected;
+  }
+
+  // ============================================================================================
+  // ============================== Atomic file encoder examples
+  // =========================================
+  // ============================================================================================
+
+  // 2 x 2 image without alpha whose run crosses the rows, and its file
+  private static final int[][] atomicRows = {
+      { 0xFF_64_32_C8, 0xFF_64_32_C8 },
+      { 0xFF_64_32_C8, 0xFF_6E_3C_D2 }
+  };
+
+  private static final byte[] atomicFile = qoiFile(2, 2, QOISpecification.RGB,
+      (byte) -2, (byte) 100, (byte) 50, (byte) -56,  // RGB : (100, 50, 200)
+      (byte) 0b11_00_00_01,                          // RUN(2)
+      (byte) 0b10_101010, (byte) 0b1000_1000);       // LUMA dg = 10, dr - dg = 0, db - dg = 0 : (110, 60, 210)
+
+  private static boolean testQoiFileReplace() {
+    Helper.Image image = Helper.generateImage(atomicRows, QOISpecification.RGB, QOISpecification.sRGB);
+    // The replaced file is longer than the new one
+    byte[] longer = new byte[3 * atomicFile.length];
+    Arrays.fill(longer, (byte) 0x55);
+    return withTempFile(longer, path -> {
+      QOIEncoder.qoiFile(image, path, false);
+      boolean replaced = Arrays.equals(atomicFile, Files.readAllBytes(path));
+      // A replaced file keeps its permissions
+      boolean kept = true;
+      if (Files.getFileAttributeView(path, PosixFileAttributeView.class) != null) {
+        Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-r-----");
+        Files.setPosixFilePermissions(path, permissions);
+        QOIEncoder.qoiFile(image, path, true);
+        kept = permissions.equals(Files.getPosixFilePermissions(path));
+      } else {
+        QOIEncoder.qoiFile(image, path, true);
+      }
+      boolean forced = Arrays.equals(atomicFile, Files.readAllBytes(path));
+      // No temporary file is left next to the file
+      String prefix = "." + path.getFileName();
+      try (Stream<Path> siblings = Files.list(path.toAbsolutePath().getParent())) {
+        return replaced && kept && forced && siblings.noneMatch(f -> f.getFileName().toString().startsWith(prefix));
+      }
+    });
+  }
+
+  private static boolean testQoiFileUnwritable() {
+    Helper.Image image = Helper.generateImage(atomicRows, QOISpecification.RGB, QOISpecification.sRGB);
+    // The parent of the path is a file : the temporary file cannot be created and the file is left as it is
+    return withTempFile(atomicFile, path -> {
+      try {
+        QOIEncoder.qoiFile(image, path.resolve("child.qoi"), false);
+        return false;
+      } catch (IOException e) {
+        return Arrays.equals(atomicFile, Files.readAllBytes(path));
+      }
+    });
+  }
+
+  // ============================================================================================
+  // ============================== Reusable codec examples
+  // =========================================
+  // ============================================================================================
+
+  // 2 x 1 image, its (10, 20, 30, 40) pixel is stored at the position 12 of the index
+  private static final byte[] reusableFirst = qoiFile(2, 1, QOISpecification.RGBA,
+      (byte) -1, (byte) 10, (byte) 20, (byte) 30, (byte) 40, // RGBA : (10, 20, 30, 40)
+      (byte) 0b11_00_00_00);                                 // RUN(1)
+
+  // 1 x 2 image reading the position 12 of the index, only transparent black once the index is reset
+  private static final byte[] reusableSecond = qoiFile(1, 2, QOISpecification.RGB,
+      (byte) 12,                                             // INDEX(12)
+      (byte) 0b11_00_00_00);                                 // RUN(1)
+
+  private static boolean testReusableDecoderReset() {
+    QOIReusableDecoder decoder = new QOIReusableDecoder();
+    Helper.Image first = decoder.decodeQoiFile(reusableFirst);
+    boolean firstHeader = decoder.width() == 2 && decoder.height() == 1 && decoder.channels() == QOISpecification.RGBA;
+    int[] pixels = { 0x55, 0x55, 0x55, 0x55 };
+    int decoded = decoder.decodeQoiFile(reusableSecond, pixels, 1);
+    int[][] expectedFirst = { { 0x28_0A_14_1E, 0x28_0A_14_1E } };
+    int[] expectedPixels = { 0x55, 0, 0, 0x55 };
+    return Arrays.deepEquals(expectedFirst, first.data()) && firstHeader
+        && decoded == 2 && Arrays.equals(expectedPixels, pixels)
+        && decoder.width() == 1 && decoder.height() == 2 && decoder.channels() == QOISpecification.RGB;
+  }
+
+  private static boolean testReusableDecoderFailure() {
+    QOIReusableDecoder decoder = new QOIReusableDecoder();
+    decoder.decodeQoiFile(reusableFirst);
+    // Every pixel is decoded but the "QOI_EOF" is corrupted, or the buffer is too small
+    byte[] badEof = reusableSecond.clone();
+    badEof[badEof.length - 1] = 0;
+    int failures = 0;
+    try {
+      decoder.decodeQoiFile(badEof);
+    } catch (RuntimeException e) {
+      ++failures;
+    }
+    try {
+      decoder.decodeQoiFile(reusableSecond, new int[2], 1);
+    } catch (RuntimeException e) {
+      ++failures;
+    }
+    // The header still describes the last image decoded successfully
+    return failures == 2 && decoder.width() == 2 && decoder.height() == 1 && decoder.channels() == QOISpecification.RGBA
+        && decoder.decodeQoiFile(reusableSecond).data()[1][0] == 0;
+  }
+
+  private static boolean testReusableEncoderReset() {
+    QOIReusableEncoder encoder = new QOIReusableEncoder();
+    Helper.Image first = QOIDecoder.decodeQoiFile(reusableFirst);
+    Helper.Image second = QOIDecoder.decodeQoiFile(reusableSecond);
+    byte[] expectedSecond = qoiFile(1, 2, QOISpecification.RGB, (byte) 0, (byte) 0b11_00_00_00);
+    // Encoding the same image twice in a row : the second one does not start with a run of the first one
+    byte[] buffer = new byte[1 + (int) QOIEncoder.maxEncodedSize(2, 1, QOISpecification.RGBA)];
+    boolean once = Arrays.equals(reusableFirst, encoder.qoiFile(first));
+    int written = encoder.qoiFile(first, buffer, 1);
+    return once && written == reusableFirst.length
+        && Arrays.equals(reusableFirst, 0, written, buffer, 1, 1 + written)
+        && Arrays.equals(expectedSecond, encoder.qoiFile(second));
+  }
+
+  // ============================================================================================
+  // ============================== Image cache examples
+  // =========================================
+  // ============================================================================================
+
+  // Three different 2 x 1 files, each one weighting 8 bytes once decoded
+  private static final byte[][] cacheFiles = {
+      qoiFile(2, 1, QOISpecification.RGB, (byte) -2, (byte) 1, (byte) 2, (byte) 3, (byte) 0b11_00_00_00),
+      qoiFile(2, 1, QOISpecification.RGB, (byte) -2, (byte) 4, (byte) 5, (byte) 6, (byte) 0b11_00_00_00),
+      qoiFile(2, 1, QOISpecification.RGB, (byte) -2, (byte) 7, (byte) 8, (byte) 9, (byte) 0b11_00_00_00)
+  };
+
+  private static boolean testImageCacheEviction() {
+    // Room for two entries
+    QOIImageCache cache = new QOIImageCache(2 * 2 * Integer.BYTES);
+    Helper.Image first = cache.get(cacheFiles[0]);
+    cache.get(cacheFiles[1]);
+    boolean hit = cache.get(cacheFiles[0].clone()) == first;
+    // The second file is the least recently used, then the third one
+    cache.get(cacheFiles[2]);
+    boolean kept = cache.get(cacheFiles[0]) == first;
+    Helper.Image second = cache.get(cacheFiles[1]);
+    QOIImageCache.Stats stats = cache.stats();
+    // Nothing fits in an empty cache
+    QOIImageCache empty = new QOIImageCache(0);
+    boolean decoded = empty.get(cacheFiles[0]).equals(first) && empty.get(cacheFiles[0]) != first;
+    QOIImageCache.Stats emptyStats = empty.stats();
+    return hit && kept && second.data()[0][1] == 0xFF_04_05_06
+        && stats.hits() == 2 && stats.misses() == 4 && stats.evictions() == 2
+        && stats.entries() == 2 && stats.weight() == 2 * 2 * Integer.BYTES
+        && decoded && emptyStats.misses() == 2 && emptyStats.entries() == 0 && emptyStats.weight() == 0;
+  }
+
+  private static boolean testImageCacheFile() {
+    QOIImageCache cache = new QOIImageCache(1 << 10);
+    return withTempFile(cacheFiles[0], path -> {
+      Helper.Image first = cache.get(path);
+      // The same file through a path which is not normalized
+      boolean hit = cache.get(path.getParent().resolve(".").resolve(path.getFileName())) == first;
+      // A file rewritten with the same size is decoded again once its modification time changes
+      Files.write(path, cacheFiles[1]);
+      Files.setLastModifiedTime(path, FileTime.fromMillis(Files.getLastModifiedTime(path).toMillis() + 2_000));
+      Helper.Image changed = cache.get(path);
+      cache.invalidate(path);
+      QOIImageCache.Stats invalidated = cache.stats();
+      Helper.Image reloaded = cache.get(path);
+      QOIImageCache.Stats stats = cache.stats();
+      return hit && first.data()[0][0] == 0xFF_01_02_03 && changed.data()[0][0] == 0xFF_04_05_06
+          && invalidated.entries() == 0 && invalidated.weight() == 0
+          && reloaded != changed && reloaded.equals(changed)
+          && stats.hits() == 1 && stats.misses() == 3 && stats.entries() == 1 && stats.weight() == 2 * Integer.BYTES;
+    });
+  }
+
+  private static boolean testImageCacheFailure() {
+    QOIImageCache cache = new QOIImageCache(1 << 10);
+    byte[] corrupted = cacheFiles[0].clone();
+    corrupted[corrupted.length - 1] = 0;
+    // A failed decode is not cached : the next lookup decodes the content again
+    int failures = 0;
+    for (int i = 0; i < 2; ++i) {
+      try {
+        cache.get(corrupted);
+      } catch (RuntimeException e) {
+        ++failures;
+      }
+    }
+    QOIImageCache.Stats stats = cache.stats();
+    return failures == 2 && stats.misses() == 2 && stats.entries() == 0 && stats.weight() == 0;
+  }
+
+  // ============================================================================================
+  // ============================== Fingerprint examples
+  // =========================================
+  // ============================================================================================
+
+  // 3 x 2 image, and the same pixels in a 2 x 3 image
+  private static final int[][] fingerprintRows = {
+      { 0x01_02_03_04, 0x05_06_07_08, 0x09_0A_0B_0C },
+      { 0x0D_0E_0F_10, 0x11_12_13_14, 0x15_16_17_18 }
+  };
+
+  private static final int[][] fingerprintColumns = {
+      { 0x01_02_03_04, 0x05_06_07_08 },
+      { 0x09_0A_0B_0C, 0x0D_0E_0F_10 },
+      { 0x11_12_13_14, 0x15_16_17_18 }
+  };
+
+  private static boolean testFingerprintBytes() {
+    // XXH64 (seed 0) of the empty input and of "abc"
+    boolean known = QOIFingerprint.of(new byte[0]) == 0xEF46_DB37_51D8_E999L
+        && QOIFingerprint.of(new byte[] { 'a', 'b', 'c' }) == 0x44BC_2CF5_AD77_0999L;
+    // The hash of a row is the one of its little-endian bytes, with and without the 32 bytes stripes
+    boolean rows = true;
+    for (int n = 0; n <= 17; ++n) {
+      int[] row = new int[n];
+      ByteBuffer bytes = ByteBuffer.allocate(n * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      for (int i = 0; i < n; ++i) {
+        row[i] = 0x9E37_79B9 * (i + 1);
+        bytes.putInt(row[i]);
+      }
+      rows &= QOIFingerprint.hash(row) == QOIFingerprint.hash(bytes.array(), 0, bytes.capacity());
+    }
+    return known && rows;
+  }
+
+  private static boolean testFingerprintImage() {
+    Helper.Image image = Helper.generateImage(fingerprintRows, QOISpecification.RGBA, QOISpecification.sRGB);
+    Helper.Image copy = Helper.generateImage(new int[][] { fingerprintRows[0].clone(), fingerprintRows[1].clone() },
+        QOISpecification.RGBA, QOISpecification.sRGB);
+    // The size, the channels and the color space are part of the fingerprint, not only the pixels
+    long[] others = {
+        QOIFingerprint.of(Helper.generateImage(fingerprintColumns, QOISpecification.RGBA, QOISpecification.sRGB)),
+        QOIFingerprint.of(Helper.generateImage(fingerprintRows, QOISpecification.RGB, QOISpecification.sRGB)),
+        QOIFingerprint.of(Helper.generateImage(fingerprintRows, QOISpecification.RGBA, QOISpecification.ALL))
+    };
+    long fingerprint = QOIFingerprint.of(image);
+    boolean distinct = true;
+    for (long other : others) {
+      distinct &= other != fingerprint;
+    }
+    return QOIFingerprint.of(copy) == fingerprint && copy.equals(image) && copy.hashCode() == image.hashCode()
+        && distinct && QOIFingerprint.of(QOIEncoder.qoiFile(image)) != fingerprint;
+  }
+
+  private static boolean testFingerprintKey() {
+    int[][] rows = { fingerprintRows[0].clone(), fingerprintRows[1].clone() };
+    Helper.Image image = Helper.generateImage(rows, QOISpecification.RGBA, QOISpecification.sRGB);
+    QOIFingerprint.Key key = QOIFingerprint.key(image);
+    HashSet<QOIFingerprint.Key> keys = new HashSet<>();
+    keys.add(key);
+    // The key holds its own pixels : changing the image afterwards changes neither its fingerprint nor its lookups
+    long before = key.fingerprint();
+    rows[1][2] = 0;
+    QOIFingerprint.Key changed = QOIFingerprint.key(image);
+    QOIFingerprint.Key original = QOIFingerprint.key(Helper.generateImage(fingerprintRows, QOISpecification.RGBA, QOISpecification.sRGB));
+    QOIFingerprint.Key rgb = QOIFingerprint.key(Helper.generateImage(fingerprintRows, QOISpecification.RGB, QOISpecification.sRGB));
+    return key.fingerprint() == before && before == original.fingerprint()
+        && keys.contains(original) && !keys.contains(changed) && !keys.contains(rgb)
+        && key.equals(original) && key.hashCode() == original.hashCode() && !key.equals(changed);
+  }
+
+  // ============================================================================================
+  // ============================== Probe examples
+  // =========================================
+  // ============================================================================================
+
+  // 4 x 1 image without alpha in the linear color space
+  private static byte[] probeFile() {
+    byte[] file = qoiFile(4, 1, QOISpecification.RGB, (byte) -2, (byte) 1, (byte) 2, (byte) 3, (byte) 0b11_00_00_10);
+    file[QOISpecification.HEADER_SIZE - 1] = QOISpecification.ALL;
+    return file;
+  }
+
+  private static boolean testProbeEof() {
+    byte[] file = probeFile();
+    byte[] embedded = QOICheckpointIndex.build(file, 2).embed(file);
+    return withTempFile(file, path -> {
+      QOIProbe.Info info = QOIProbe.probe(path, true);
+      return info.width() == 4 && info.height() == 1 && info.channels() == QOISpecification.RGB
+          && info.colorSpace() == QOISpecification.ALL && info.size() == 27 && info.eof() && info.error() == null
+          && QOIProbe.probe(path, false).eof() == null;
+    }) && withTempFile(embedded, path -> {
+      // The "QOI_EOF" is found before the embedded index
+      QOIProbe.Info info = QOIProbe.probe(path, true);
+      return info.eof() && info.size() == embedded.length;
+    }) && withTempFile(Arrays.copyOf(file, file.length - 1), path -> !QOIProbe.probe(path, true).eof());
+  }
+
+  private static boolean testProbeScan() {
+    try {
+      Path root = Files.createTempDirectory("main");
+      Path[] files = { root.resolve("a.qoi"), root.resolve("B.QOI"), root.resolve("c.png") };
+      try {
+        Files.write(files[0], probeFile());
+        Files.write(files[1], new byte[QOISpecification.HEADER_SIZE]);
+        Files.write(files[2], probeFile());
+        // The extension is matched whatever its case, a file which cannot be probed is reported
+        List<QOIProbe.Info> infos = QOIProbe.scan(root, true, 2);
+        return infos.size() == 2 && infos.get(0).file().equals(files[1]) && infos.get(0).error() != null
+            && infos.get(0).size() == QOISpecification.HEADER_SIZE && infos.get(0).width() == 0
+            && infos.get(1).file().equals(files[0]) && infos.get(1).error() == null && infos.get(1).eof();
+      } finally {
+        for (Path file : files) {
+          Files.deleteIfExists(file);
+        }
+        Files.deleteIfExists(root);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static boolean testProbeOutput() {
+    List<QOIProbe.Info> infos = List.of(
+        new QOIProbe.Info(Path.of("a.qoi"), 27, 4, 1, QOISpecification.RGB, QOISpecification.ALL, true, null),
+        new QOIProbe.Info(Path.of("b,\"c\".qoi"), 3, 0, 0, (byte) 0, (byte) 0, null, "too\nsmall"));
+    StringBuilder csv = new StringBuilder();
+    QOIProbe.writeCsv(infos, csv);
+    StringBuilder json = new StringBuilder();
+    QOIProbe.writeJson(infos, json);
+    StringBuilder empty = new StringBuilder();
+    QOIProbe.writeJson(List.of(), empty);
+    // Fields with a comma, a quote or a new line are quoted in CSV and escaped in JSON
+    String expectedCsv = "path,size,width,height,channels,colorspace,eof,error\n"
+        + "a.qoi,27,4,1,3,1,true,\n"
+        + "\"b,\"\"c\"\".qoi\",3,0,0,0,0,,\"too\nsmall\"\n";
+    String expectedJson = "[\n"
+        + "  {\"path\": \"a.qoi\", \"size\": 27, \"width\": 4, \"height\": 1, \"channels\": 3, \"colorspace\": 1, \"eof\": true, \"error\": null},\n"
+        + "  {\"path\": \"b,\\\"c\\\".qoi\", \"size\": 3, \"width\": 0, \"height\": 0, \"channels\": 0, \"colorspace\": 0, \"eof\": null, \"error\": \"too\\nsmall\"}\n"
+        + "]\n";
+    return expectedCsv.equals(csv.toString()) && expectedJson.equals(json.toString()) && "[]\n".equals(empty.toString());
+  }
+
+  // ============================================================================================
+  // ============================== Validator examples
+  // =========================================
+  // ============================================================================================
+
+  /**
+   * Chunks of a 64 x 64 image : RGB(1, 2, 3) then 63 times DIFF, INDEX, RUN(62) and RUN(1),
+   * i.e. 65 pixels every 4 single byte chunks. They are long enough to be validated 8 chunks at once.
+   */
+  private static byte[] validatorData() {
+    byte[] data = new byte[4 + 63 * 4];
+    data[0] = -2;
+    data[1] = 1;
+    data[2] = 2;
+    data[3] = 3;
+    for (int i = 4; i < data.length; i += 4) {
+      data[i] = 0b01_10_10_10;
+      data[i + 1] = 23;
+      data[i + 2] = (byte) 0b11_11_11_01;
+      data[i + 3] = (byte) 0b11_00_00_00;
+    }
+    return data;
+  }
+
+  private static boolean testValidateLongRuns() {
+    byte[] file = qoiFile(64, 64, QOISpecification.RGB, validatorData());
+    // A file is valid if and only if it can be decoded
+    boolean decoded = QOIDecoder.decodeQoiFile(file).data()[63][63] == 0xFF_01_02_03;
+    return decoded && QOIValidator.validate(file).valid() && QOIValidator.validate(file).offset() == -1
+        && withTempFile(file, path -> QOIValidator.validate(path).valid());
+  }
+
+  private static boolean testValidateErrors() {
+    byte[] data = validatorData();
+    byte[] file = qoiFile(64, 64, QOISpecification.RGB, data);
+    byte[] badMagic = file.clone();
+    badMagic[3] = 'g';
+    byte[] badChannels = file.clone();
+    badChannels[12] = 5;
+    // The last run goes one pixel past the image
+    data[data.length - 1] = (byte) 0b11_00_00_01;
+    byte[] tooManyPixels = qoiFile(64, 64, QOISpecification.RGB, data);
+    // A run after the last pixel is read as the start of the "QOI_EOF"
+    byte[] extra = Arrays.copyOf(validatorData(), data.length + 1);
+    extra[data.length] = (byte) 0b11_00_00_00;
+    byte[] extraChunk = qoiFile(64, 64, QOISpecification.RGB, extra);
+    QOIValidator.Report[] reports = {
+        QOIValidator.validate(badMagic),
+        QOIValidator.validate(badChannels),
+        QOIValidator.validate(Arrays.copyOf(file, QOISpecification.HEADER_SIZE + 2)),
+        QOIValidator.validate(Arrays.copyOf(file, QOISpecification.HEADER_SIZE + 100)),
+        QOIValidator.validate(tooManyPixels),
+        QOIValidator.validate(extraChunk),
+        QOIValidator.validate(Arrays.copyOf(file, file.length - 1))
+    };
+    long[] offsets = { 3, 12, 14, 114, 269, 270, 270 };
+    boolean invalid = true;
+    for (int i = 0; i < reports.length; ++i) {
+      invalid &= !reports[i].valid() && reports[i].offset() == offsets[i];
+    }
+    return invalid && reports[4].error().equals("The data contains more pixels than the image")
+        && reports[5].error().equals("Invalid \"QOI_EOF\"") && reports[6].error().equals("Expected \"QOI_EOF\"");
+  }
+
+  // ============================================================================================
+  // ============================== Push decoder examples
+  // =========================================
+  // ============================================================================================
+
+  // 3 x 2 image using chunks of 1, 2, 4 and 5 bytes with a run across the rows
+  private static final int[][] pushRows = {
+      { 0x28_0A_14_1E, 0x28_07_10_18, 0x28_07_10_18 },
+      { 0x28_07_10_18, 0x28_FF_00_80, 0x28_0A_14_1E }
+  };
+
+  private static final byte[] pushFile = qoiFile(3, 2, QOISpecification.RGBA,
+      (byte) -1, (byte) 10, (byte) 20, (byte) 30, (byte) 40, // RGBA : (10, 20, 30, 40)
+      (byte) 0b10_011100, (byte) 0b1001_0110,                // LUMA dg = -4, dr - dg = 1, db - dg = -2 : (7, 16, 24, 40)
+      (byte) 0b11_00_00_01,                                  // RUN(2), across the rows
+      (byte) -2, (byte) -1, (byte) 0, (byte) -128,           // RGB, the alpha is kept : (255, 0, 128, 40)
+      (byte) 12);                                            // INDEX of the RGBA pixel
+
+  private static boolean testPushDecoderByteByByte() {
+    List<int[]> rows = new ArrayList<>();
+    QOIPushDecoder decoder = new QOIPushDecoder((y, row) -> rows.add(y == rows.size() ? row.clone() : null));
+    // The header, the chunks and the "QOI_EOF" are all split between calls
+    boolean progress = true;
+    for (int off = 0; off < pushFile.length; ++off) {
+      ByteBuffer piece = ByteBuffer.wrap(pushFile, off, 1);
+      boolean complete = decoder.feed(piece);
+      progress &= !piece.hasRemaining() && complete == (off == pushFile.length - 1)
+          && decoder.hasHeader() == (off >= QOISpecification.HEADER_SIZE - 1);
+      // The first row is complete once the run is read, the second one once the index is read
+      if (off == QOISpecification.HEADER_SIZE + 7)
+        progress &= decoder.rows() == 1;
+      if (off == pushFile.length - QOISpecification.QOI_EOF.length - 1)
+        progress &= decoder.rows() == 2 && !decoder.isComplete();
+    }
+    decoder.finish();
+    return progress && decoder.width() == 3 && decoder.height() == 2 && decoder.channels() == QOISpecification.RGBA
+        && Arrays.deepEquals(pushRows, rows.toArray(new int[0][]));
+  }
+
+  private static boolean testPushDecoderNextImage() {
+    List<int[]> rows = new ArrayList<>();
+    QOIPushDecoder decoder = new QOIPushDecoder((y, row) -> rows.add(row.clone()));
+    // A 1 x 1 image follows on the same connection
+    byte[] next = qoiFile(1, 1, QOISpecification.RGB, (byte) 0b01_11_11_11);
+    ByteBuffer input = ByteBuffer.allocateDirect(pushFile.length + next.length);
+    input.put(pushFile).put(next).flip();
+    boolean first = decoder.feed(input) && input.position() == pushFile.length && rows.size() == 2;
+    decoder.reset();
+    boolean cleared = !decoder.hasHeader() && decoder.rows() == 0 && !decoder.isComplete();
+    boolean second = decoder.feed(input) && !input.hasRemaining() && decoder.width() == 1
+        && decoder.channels() == QOISpecification.RGB && rows.size() == 3 && rows.get(2)[0] == 0xFF_01_01_01;
+    // Every pixel was received but not the "QOI_EOF"
+    QOIPushDecoder truncated = new QOIPushDecoder((y, row) -> {});
+    truncated.feed(ByteBuffer.wrap(pushFile, 0, pushFile.length - 1));
+    boolean missing;
+    try {
+      truncated.finish();
+      missing = false;
+    } catch (RuntimeException e) {
+      missing = truncated.rows() == 2;
+    }
+    return first && cleared && second && missing;
+  }
+
+  // ============================================================================================
+  // ============================== Encoder snapshots examples
+  // =========================================
+  // ============================================================================================
+
+  // 2 x 3 image whose run goes from the second row to the last one
+  private static final int[][] snapshotRows = {
+      { 0xFF_32_3C_46, 0xFF_33_3D_47 },
+      { 0xFF_33_3D_47, 0xFF_33_3D_47 },
+      { 0xFF_33_3D_47, 0x80_33_3D_47 }
+  };
+
+  private static final byte[] snapshotFile = qoiFile(2, 3, QOISpecification.RGBA,
+      (byte) -2, (byte) 50, (byte) 60, (byte) 70,                 // RGB : (50, 60, 70, 255)
+      (byte) 0b01_11_11_11,                                       // DIFF (+1, +1, +1) : (51, 61, 71, 255)
+      (byte) 0b11_00_00_10,                                       // RUN(3)
+      (byte) -1, (byte) 51, (byte) 61, (byte) 71, (byte) -128);   // RGBA : (51, 61, 71, 128)
+
+  private static boolean testSnapshotInRun() {
+    try {
+      ByteArrayOutputStream before = new ByteArrayOutputStream();
+      QOIStreamEncoder encoder = new QOIStreamEncoder(before, 2, 3, QOISpecification.RGBA, QOISpecification.sRGB);
+      encoder.writeRow(snapshotRows[0]);
+      encoder.writeRow(snapshotRows[1]);
+      // Two pixels of the run are pending : they are in the snapshot, not in the written bytes
+      byte[] saved = encoder.snapshot().toBytes();
+      // Magic, version, width, height, channels, color space, rows, written bytes, previous pixel and run
+      byte[] expected = { 'q', 'o', 'i', 'e', 1, 0, 0, 0, 2, 0, 0, 0, 3, 4, 0, 0, 0, 0, 2,
+          0, 0, 0, 0, 0, 0, 0, 19, -1, 0x33, 0x3D, 0x47, 0, 0, 0, 2 };
+      QOIStreamEncoder.Snapshot snapshot = QOIStreamEncoder.Snapshot.fromBytes(saved);
+      ByteArrayOutputStream after = new ByteArrayOutputStream();
+      try (QOIStreamEncoder resumed = new QOIStreamEncoder(after, snapshot)) {
+        resumed.writeRow(snapshotRows[2]);
+      }
+      byte[] file = Arrays.copyOf(before.toByteArray(), before.size() + after.size());
+      System.arraycopy(after.toByteArray(), 0, file, before.size(), after.size());
+      return Arrays.equals(expected, 0, expected.length, saved, 0, expected.length)
+          && before.size() == 19 && snapshot.pixels() == 4 && snapshot.run() == 2
+          && Arrays.equals(snapshotFile, file);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static boolean testSnapshotCorrupted() {
+    try {
+      QOIStreamEncoder encoder = new QOIStreamEncoder(new ByteArrayOutputStream(), 2, 3, QOISpecification.RGBA, QOISpecification.sRGB);
+      encoder.writeRow(snapshotRows[0]);
+      byte[] saved = encoder.snapshot().toBytes();
+      // An unknown version, a run longer than a chunk and a truncated snapshot
+      byte[] version = saved.clone();
+      version[4] = 2;
+      byte[] run = saved.clone();
+      run[34] = QOISpecification.QOI_OP_RUN_MAX + 1;
+      byte[][] corrupted = { version, run, Arrays.copyOf(saved, saved.length - 1) };
+      int failures = 0;
+      for (byte[] bytes : corrupted) {
+        try {
+          QOIStreamEncoder.Snapshot.fromBytes(bytes);
+        } catch (RuntimeException e) {
+          ++failures;
+        }
+      }
+      return failures == corrupted.length && QOIStreamEncoder.Snapshot.fromBytes(saved).rows() == 1;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static boolean testCloseIncomplete() {
+    try {
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      QOIStreamEncoder encoder = new QOIStreamEncoder(output, 2, 3, QOISpecification.RGBA, QOISpecification.sRGB);
+      encoder.writeRow(snapshotRows[0]);
+      encoder.writeRow(snapshotRows[1]);
+      boolean refused;
+      try {
+        encoder.finish();
+        refused = false;
+      } catch (IllegalStateException e) {
+        refused = true;
+      }
+      // Neither the pending run nor the "QOI_EOF" is written
+      encoder.close();
+      encoder.close();
+      return refused && Arrays.equals(snapshotFile, 0, 19, output.toByteArray(), 0, output.size()) && output.size() == 19;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // ============================================================================================
+  // ============================== Stream decoder examples
+  // =========================================
+  // ============================================================================================
+
+  // 2 x 2 image, and its file
+  private static final int[][] streamRows = {
+      { 0x04_01_02_03, 0x04_01_02_03 },
+      { 0x04_05_02_03, 0x04_01_02_03 }
+  };
+
+  private static final byte[] streamFile = qoiFile(2, 2, QOISpecification.RGBA,
+      (byte) -1, (byte) 1, (byte) 2, (byte) 3, (byte) 4, // RGBA : (1, 2, 3, 4)
+      (byte) 0b11_00_00_00,                              // RUN(1)
+      (byte) 0b10_100000, (byte) 0b1100_1000,            // LUMA dg = 0, dr - dg = 4, db - dg = 0 : (5, 2, 3, 4)
+      (byte) 14);                                        // INDEX of the RGBA pixel
+
+  /**
+   * Stream giving at most one byte per read, so that every chunk is split between two reads
+   */
+  private static InputStream oneByteAtATime(byte[] bytes) {
+    return new ByteArrayInputStream(bytes) {
+      @Override
+      public synchronized int read(byte[] b, int off, int len) {
+        return super.read(b, off, Math.min(len, 1));
+      }
+    };
+  }
+
+  private static boolean testStreamDecoderSplitReads() {
+    try {
+      QOIStreamDecoder decoder = new QOIStreamDecoder(oneByteAtATime(streamFile));
+      boolean header = decoder.width() == 2 && decoder.height() == 2
+          && decoder.channels() == QOISpecification.RGBA && decoder.colorSpace() == QOISpecification.sRGB;
+      int[] row = new int[2];
+      boolean first = decoder.readRow(row) && Arrays.equals(streamRows[0], row);
+      boolean second = decoder.readRow(row) && Arrays.equals(streamRows[1], row);
+      boolean end = !decoder.readRow(row);
+      // The same through a channel and a sink
+      QOIStreamDecoder channel = new QOIStreamDecoder(Channels.newChannel(oneByteAtATime(streamFile)));
+      int[][] rows = new int[2][];
+      channel.decode((y, r) -> rows[y] = r.clone());
+      return header && first && second && end && Arrays.deepEquals(streamRows, rows);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static boolean testStreamDecoderErrors() {
+    try {
+      // Every pixel is there but the "QOI_EOF" is cut
+      QOIStreamDecoder truncated = new QOIStreamDecoder(oneByteAtATime(Arrays.copyOf(streamFile, streamFile.length - 1)));
+      int[] row = new int[2];
+      boolean missing;
+      try {
+        truncated.readRow(row);
+        truncated.readRow(row);
+        missing = false;
+      } catch (RuntimeException e) {
+        // The last row is decoded before the "QOI_EOF" is checked
+        missing = Arrays.equals(streamRows[1], row);
+      }
+      // A non-blocking channel is refused, it cannot be read until the bytes arrive
+      Pipe pipe = Pipe.open();
+      boolean refused;
+      try {
+        pipe.source().configureBlocking(false);
+        new QOIStreamDecoder(pipe.source());
+        refused = false;
+      } catch (IllegalArgumentException e) {
+        refused = true;
+      } finally {
+        pipe.source().close();
+        pipe.sink().close();
+      }
+      // A channel reading no bytes would make the decoder spin
+      ReadableByteChannel empty = new ReadableByteChannel() {
+        @Override
+        public int read(ByteBuffer dst) {
+          return 0;
+        }
+
+        @Override
+        public boolean isOpen() {
+          return true;
+        }
+
+        @Override
+        public void close() {}
+      };
+      boolean stalled;
+      try {
+        new QOIStreamDecoder(empty);
+        stalled = false;
+      } catch (IOException e) {
+        stalled = true;
+      }
+      return missing && refused && stalled;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // ============================================================================================
+  // ============================== Stream encoder examples
+  // =========================================
+  // ============================================================================================
+
+  // 3 x 1 image ending with a run, which is only written when the encoder finishes
+  private static final int[][] streamEncoderRows = { { 0x7F_10_20_30, 0x7F_10_20_30, 0x7F_10_20_30 } };
+
+  private static final byte[] streamEncoderFile = qoiFile(3, 1, QOISpecification.RGBA,
+      (byte) -1, (byte) 16, (byte) 32, (byte) 48, (byte) 127, // RGBA : (16, 32, 48, 127)
+      (byte) 0b11_00_00_01);                                  // RUN(2)
+
+  private static boolean testStreamEncoderTargets() {
+    try {
+      Helper.Image image = Helper.generateImage(streamEncoderRows, QOISpecification.RGBA, QOISpecification.sRGB);
+      // Closing the encoder once every row is written finishes the file
+      ByteArrayOutputStream stream = new ByteArrayOutputStream();
+      try (QOIStreamEncoder encoder = new QOIStreamEncoder(stream, 3, 1, QOISpecification.RGBA, QOISpecification.sRGB)) {
+        encoder.writeRow(streamEncoderRows[0]);
+      }
+      ByteArrayOutputStream channel = new ByteArrayOutputStream();
+      QOIStreamEncoder.encode(image, Channels.newChannel(channel));
+      // The buffers are written from their position
+      ByteBuffer heap = ByteBuffer.allocate(3 + streamEncoderFile.length);
+      heap.position(3);
+      QOIStreamEncoder.encode(image, heap);
+      ByteBuffer direct = ByteBuffer.allocateDirect(streamEncoderFile.length);
+      QOIStreamEncoder.encode(image, direct);
+      byte[] fromDirect = new byte[streamEncoderFile.length];
+      direct.flip().get(fromDirect);
+      return Arrays.equals(streamEncoderFile, stream.toByteArray()) && Arrays.equals(streamEncoderFile, channel.toByteArray())
+          && !heap.hasRemaining() && Arrays.equals(streamEncoderFile, 0, streamEncoderFile.length, heap.array(), 3, heap.capacity())
+          && Arrays.equals(streamEncoderFile, fromDirect);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static boolean testStreamEncoderLargeRows() {
+    // Rows of "QOI_OP_RGBA" chunks larger than the buffer of the encoder, which is flushed in the middle of a row
+    int[][] rows = new int[2][QOIStreamEncoder.BUFFER_SIZE / 4];
+    for (int y = 0; y < rows.length; ++y) {
+      for (int x = 0; x < rows[y].length; ++x) {
+        rows[y][x] = (x + y) << 24 | x * 0x01_03_05 & 0xFF_FF_FF;
+      }
+    }
+    Helper.Image image = Helper.generateImage(rows, QOISpecification.RGBA, QOISpecification.sRGB);
+    int[] largest = { 0 };
+    ByteArrayOutputStream output = new ByteArrayOutputStream() {
+      @Override
+      public synchronized void write(byte[] b, int off, int len) {
+        largest[0] = Math.max(largest[0], len);
+        super.write(b, off, len);
+      }
+    };
+    try {
+      QOIStreamEncoder.encode(image, output);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    // The memory of the encoder does not grow with the image
+    return Arrays.equals(QOIEncoder.qoiFile(image), output.toByteArray())
+        && output.size() > 2 * QOIStreamEncoder.BUFFER_SIZE && largest[0] <= QOIStreamEncoder.BUFFER_SIZE;
+  }
+
+  private static boolean testStreamEncoderChannels() {
+    Helper.Image image = Helper.generateImage(streamEncoderRows, QOISpecification.RGBA, QOISpecification.sRGB);
+    try {
+      // A non-blocking channel is refused, it could write only a part of the chunks
+      Pipe pipe = Pipe.open();
+      boolean refused;
+      try {
+        pipe.sink().configureBlocking(false);
+        new QOIStreamEncoder(pipe.sink(), 3, 1, QOISpecification.RGBA, QOISpecification.sRGB);
+        refused = false;
+      } catch (IllegalArgumentException e) {
+        refused = true;
+      } finally {
+        pipe.source().close();
+        pipe.sink().close();
+      }
+      // A channel writing no bytes would make the encoder spin
+      WritableByteChannel full = new WritableByteChannel() {
+        @Override
+        public int write(ByteBuffer src) {
+          return 0;
+        }
+
+        @Override
+        public boolean isOpen() {
+          return true;
+        }
+
+        @Override
+        public void close() {}
+      };
+      boolean stalled;
+      try {
+        QOIStreamEncoder.encode(image, full);
+        stalled = false;
+      } catch (IOException e) {
+        stalled = true;
+      }
+      return refused && stalled;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // ============================================================================================
+  // ============================== Encoder backends examples
+  // =========================================
+  // ============================================================================================
+
+  /**
+   * Encode the rows with the given state, like QOIEncoder.encodeData(int[][])
+   */
+  private static byte[] encodeRows(QOIEncoderState state, int[][] rows) {
+    byte[] encoding = new byte[rows.length * (QOIEncoderState.MAX_PIXEL_SIZE * rows[0].length + 1) + 1];
+    int off = 0;
+    for (int[] row : rows) {
+      off = state.encode(row, 0, row.length, encoding, off);
+    }
+    return Arrays.copyOf(encoding, state.flush(encoding, off));
+  }
+
+  private static boolean testEncoderBackends() {
+    // Two rows of 3 batches, every kind of chunk and runs over the end of the batches and of the rows
+    int width = 2 * QOIEncoderState.BATCH_SIZE + 100;
+    int[][] rows = new int[2][width];
+    int px = 0xFF_00_00_00;
+    for (int i = 0; i < 2 * width; ++i) {
+      int x = i % width;
+      if (x > QOIEncoderState.BATCH_SIZE - 40 && x < QOIEncoderState.BATCH_SIZE + 40 || x > width - 30 || x < 30) {
+        rows[i / width][x] = px; // Run of 80 pixels over a batch, of 60 pixels over the rows
+        continue;
+      }
+      switch (i % 6) {
+        case 0 -> px += 0x00_01_00_FF;                 // DIFF or LUMA
+        case 1 -> px += 0x00_0A_0C_0E;                 // LUMA
+        case 2 -> px ^= 0x00_80_40_20;                 // RGB
+        case 3 -> px ^= 0x40_00_00_00;                 // RGBA
+        case 4 -> px = rows[0][x / 2] | 0xFF_00_00_00; // Often in the index
+        default -> px = ~px;
+      }
+      rows[i / width][x] = px;
+    }
+    byte[] scalar = encodeRows(new QOIEncoderState(null), rows);
+    byte[] batched = encodeRows(new QOIEncoderState(QOIEncoderState::classify), rows);
+    QOIEncoderState.Classifier vector = QOIEncoderState.vectorClassifier();
+    // The vector backend is only checked when run with --add-modules jdk.incubator.vector
+    return Arrays.equals(scalar, QOIEncoder.encodeData(rows)) && Arrays.equals(scalar, batched)
+        && (vector == null || Arrays.equals(scalar, encodeRows(new QOIEncoderState(vector), rows)));
+  }
+
+}
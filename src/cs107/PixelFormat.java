@@ -0,0 +1,159 @@
+package cs107;
+
+/**
+ * Interleaved byte layouts a "Quite Ok Image" can be decoded to
+ * @since 1.3
+ */
+public enum PixelFormat {
+
+    /**
+     * Red, green, blue, alpha (OpenGL / Vulkan RGBA8 textures)
+     */
+    RGBA(4),
+
+    /**
+     * Blue, green, red, alpha (Direct3D / Vulkan BGRA8 surfaces)
+     */
+    BGRA(4),
+
+    /**
+     * Alpha, red, green, blue
+     */
+    ARGB(4),
+
+    /**
+     * Alpha, blue, green, red (Java2D TYPE_4BYTE_ABGR)
+     */
+    ABGR(4),
+
+    /**
+     * Red, green, blue, the alpha channel is dropped
+     */
+    RGB(3),
+
+    /**
+     * Blue, green, red, the alpha channel is dropped (Java2D TYPE_3BYTE_BGR)
+     */
+    BGR(3);
+
+    private final int bytesPerPixel;
+
+    PixelFormat(int bytesPerPixel){
+        this.bytesPerPixel = bytesPerPixel;
+    }
+
+    /**
+     * @return (int) - Number of bytes used by one pixel
+     */
+    public int bytesPerPixel(){
+        return bytesPerPixel;
+    }
+
+    /**
+     * Store the ARGB packed pixels in [from, to) using this layout
+     * @param pixels (int[]) - ARGB packed pixels
+     * @param from (int) - First pixel to store (inclusive)
+     * @param to (int) - Last pixel to store (exclusive)
+     * @param dst (byte[]) - Buffer where to store the pixels
+     * @param off (int) - Index in the buffer to start writing from
+     */
+    void store(int[] pixels, int from, int to, byte[] dst, int off){
+        switch (this){
+            case RGBA -> {
+                for (var i = from; i < to; ++i, off += 4){
+                    var px = pixels[i];
+                    dst[off] = (byte) (px >> 16);
+                    dst[off + 1] = (byte) (px >> 8);
+                    dst[off + 2] = (byte) px;
+                    dst[off + 3] = (byte) (px >>> 24);
+                }
+            }
+            case BGRA -> {
+                for (var i = from; i < to; ++i, off += 4){
+                    var px = pixels[i];
+                    dst[off] = (byte) px;
+                    dst[off + 1] = (byte) (px >> 8);
+                    dst[off + 2] = (byte) (px >> 16);
+                    dst[off + 3] = (byte) (px >>> 24);
+                }
+            }
+            case ARGB -> {
+                for (var i = from; i < to; ++i, off += 4){
+                    var px = pixels[i];
+                    dst[off] = (byte) (px >>> 24);
+                    dst[off + 1] = (byte) (px >> 16);
+                    dst[off + 2] = (byte) (px >> 8);
+                    dst[off + 3] = (byte) px;
+                }
+            }
+            case ABGR -> {
+                for (var i = from; i < to; ++i, off += 4){
+                    var px = pixels[i];
+                    dst[off] = (byte) (px >>> 24);
+                    dst[off + 1] = (byte) px;
+                    dst[off + 2] = (byte) (px >> 8);
+                    dst[off + 3] = (byte) (px >> 16);
+                }
+            }
+            case RGB -> {
+                for (var i = from; i < to; ++i, off += 3){
+                    var px = pixels[i];
+                    dst[off] = (byte) (px >> 16);
+                    dst[off + 1] = (byte) (px >> 8);
+                    dst[off + 2] = (byte) px;
+                }
+            }
+            case BGR -> {
+                for (var i = from; i < to; ++i, off += 3){
+                    var px = pixels[i];
+                    dst[off] = (byte) px;
+                    dst[off + 1] = (byte) (px >> 8);
+                    dst[off + 2] = (byte) (px >> 16);
+                }
+            }
+        }
+    }
+
+    /**
+     * Load pixels stored using this layout as ARGB packed pixels in [from, to).
+     * Layouts without alpha channel give opaque pixels.
+     * @param src (byte[]) - Buffer where the pixels are stored
+     * @param off (int) - Index in the buffer of the first pixel
+     * @param pixels (int[]) - Buffer where to store the ARGB packed pixels
+     * @param from (int) - First pixel to load (inclusive)
+     * @param to (int) - Last pixel to load (exclusive)
+     */
+    void load(byte[] src, int off, int[] pixels, int from, int to){
+        switch (this){
+            case RGBA -> {
+                for (var i = from; i < to; ++i, off += 4)
+                    pixels[i] = pack(src[off + 3], src[off], src[off + 1], src[off + 2]);
+            }
+            case BGRA -> {
+                for (var i = from; i < to; ++i, off += 4)
+                    pixels[i] = pack(src[off + 3], src[off + 2], src[off + 1], src[off]);
+            }
+            case ARGB -> {
+                for (var i = from; i < to; ++i, off += 4)
+                    pixels[i] = pack(src[off], src[off + 1], src[off + 2], src[off + 3]);
+            }
+            case ABGR -> {
+                for (var i = from; i < to; ++i, off += 4)
+                    pixels[i] = pack(src[off], src[off + 3], src[off + 2], src[off + 1]);
+            }
+            case RGB -> {
+                for (var i = from; i < to; ++i, off += 3)
+                    pixels[i] = pack((byte) 0xFF, src[off], src[off + 1], src[off + 2]);
+            }
+            case BGR -> {
+                for (var i = from; i < to; ++i, off += 3)
+                    pixels[i] = pack((byte) 0xFF, src[off + 2], src[off + 1], src[off]);
+            }
+        }
+    }
+
+    private static int pack(byte a, byte r, byte g, byte b){
+        return (a & 0xFF) << 24 | (r & 0xFF) << 16 | (g & 0xFF) << 8 | (b & 0xFF);
+    }
+
+}
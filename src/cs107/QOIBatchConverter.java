@@ -0,0 +1,260 @@
+package cs107;
+
+import javax.imageio.ImageIO;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Converts whole directory trees from "PNG" to "QOI" or from "QOI" to "PNG" on a bounded pool.
+ * A file is only handed to the pool once the memory held by its conversion at its peak
+ * (see {@link Direction}) fits in the memory budget, so that many small files or a few huge ones
+ * can be converted concurrently without running out of memory. Outputs newer than their input are skipped.
+ * Usage : {@code QOIBatchConverter (png2qoi|qoi2png) source target [--threads n] [--memory MiB]}
+ * @since 1.3
+ */
+public final class QOIBatchConverter {
+
+    /**
+     * Direction of a conversion
+     */
+    public enum Direction {
+
+        /**
+         * Holds at once the raster read by ImageIO (up to 4 bytes per pixel), the ARGB packed rows
+         * (4 bytes per pixel) and the encoded file, bounded by 5 bytes per pixel
+         */
+        PNG_TO_QOI(".png", ".qoi", 4 + 4 + 5),
+
+        /**
+         * Holds at once the "QOI" file, the raster of the decoded image (4 bytes per pixel) and the
+         * "PNG" output, counted as twice its uncompressed size (4 bytes per pixel) since it is buffered
+         * in a growing array and then copied
+         */
+        QOI_TO_PNG(".qoi", ".png", 4 + 2 * 4);
+
+        private final String input;
+        private final String output;
+        private final int bytesPerPixel;
+
+        Direction(String input, String output, int bytesPerPixel){
+            this.input = input;
+            this.output = output;
+            this.bytesPerPixel = bytesPerPixel;
+        }
+
+    }
+
+    /**
+     * Outcome of a batch conversion
+     * @param converted (int) - Number of converted files
+     * @param skipped (int) - Number of files whose output was up to date
+     * @param failures (List&lt;String&gt;) - One message per file which could not be converted
+     * @param pngBytes (long) - Total size of the converted "PNG" files
+     * @param qoiBytes (long) - Total size of the converted "QOI" files
+     * @param nanos (long) - Duration of the conversion
+     */
+    public record Summary(int converted, int skipped, List<String> failures, long pngBytes, long qoiBytes, long nanos) {
+
+        /**
+         * @return (double) - Number of converted files per second
+         */
+        public double filesPerSecond(){
+            return converted * 1e9 / Math.max(1, nanos);
+        }
+
+        /**
+         * @return (double) - Number of megabytes read and written per second
+         */
+        public double megabytesPerSecond(){
+            return (pngBytes + qoiBytes) / 1e6 * 1e9 / Math.max(1, nanos);
+        }
+
+        /**
+         * @return (double) - Aggregate compression ratio, as given by {@link Main#ratio(long, long)}
+         */
+        public double ratio(){
+            return qoiBytes == 0 ? 0 : Main.ratio(pngBytes, qoiBytes);
+        }
+
+        /**
+         * Print the summary
+         * @param output (PrintStream) - Where to print
+         */
+        public void print(PrintStream output){
+            output.printf("Converted %d files, skipped %d, failed %d in %.2f s%n", converted, skipped, failures.size(), nanos / 1e9);
+            output.printf("%.1f files/s, %.1f MB/s, ratio %.2f %%%n", filesPerSecond(), megabytesPerSecond(), ratio());
+            for (var failure : failures){
+                output.println("  " + failure);
+            }
+        }
+
+    }
+
+    /**
+     * Memory accounted by the admission control in blocks of this many bytes
+     */
+    private static final int BLOCK_SIZE = 1 << 10;
+
+    // Only static methods
+    private QOIBatchConverter(){}
+
+    // ==================================================================================
+    // ============================== CONVERSION METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Command line entry point
+     * @param args (String[]) - Arguments, see the documentation of the class
+     * @throws IOException if the source cannot be walked
+     * @throws InterruptedException if the thread is interrupted while waiting for the pool
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 3){
+            System.err.println("Usage : QOIBatchConverter (png2qoi|qoi2png) source target [--threads n] [--memory MiB]");
+            System.exit(2);
+        }
+        var direction = switch (args[0]){
+            case "png2qoi" -> Direction.PNG_TO_QOI;
+            case "qoi2png" -> Direction.QOI_TO_PNG;
+            default -> Helper.<Direction>fail("Unknown direction : %s", args[0]);
+        };
+        var threads = Runtime.getRuntime().availableProcessors();
+        var memory = Runtime.getRuntime().maxMemory() / 2;
+        for (var i = 3; i < args.length; ++i){
+            switch (args[i]){
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--memory" -> memory = Long.parseLong(args[++i]) << 20;
+                default -> Helper.fail("Unknown option : %s", args[i]);
+            }
+        }
+        convert(Path.of(args[1]), Path.of(args[2]), direction, threads, memory).print(System.out);
+    }
+
+    /**
+     * Convert every file of the source tree with the right extension to the same relative path
+     * in the target tree. Outputs which are newer than their input are left as they are.
+     * @param source (Path) - Directory to walk
+     * @param target (Path) - Directory where to write the outputs, can be the same as source
+     * @param direction (Direction) - Direction of the conversion
+     * @param threads (int) - Number of threads of the pool
+     * @param memory (long) - Budget in bytes for the images being converted.
+     *  An image larger than the budget is converted on its own.
+     * @return (Summary) - Outcome of the conversion
+     * @throws AssertionError if one of the parameters is null or not positive
+     * @throws IOException if the source cannot be walked
+     * @throws InterruptedException if the thread is interrupted while waiting for the pool
+     */
+    public static Summary convert(Path source, Path target, Direction direction, int threads, long memory)
+            throws IOException, InterruptedException {
+        assert source != null && target != null && direction != null;
+        assert threads > 0 && memory > 0;
+        var start = System.nanoTime();
+        var budget = (int) Math.min(Integer.MAX_VALUE, Math.max(1, memory / BLOCK_SIZE));
+        var admission = new Semaphore(budget);
+        var converted = new AtomicInteger();
+        var skipped = new AtomicInteger();
+        var failures = Collections.synchronizedList(new ArrayList<String>());
+        var pngBytes = new AtomicLong();
+        var qoiBytes = new AtomicLong();
+        var pool = Executors.newFixedThreadPool(threads);
+        try (var files = Files.walk(source)){
+            var inputs = files.filter(Files::isRegularFile)
+                    .filter(f -> f.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(direction.input))
+                    .iterator();
+            while (inputs.hasNext()){
+                var input = inputs.next();
+                var output = outputPath(source, target, input, direction);
+                try {
+                    if (isUpToDate(input, output)){
+                        skipped.incrementAndGet();
+                        continue;
+                    }
+                    var blocks = (int) Math.min(budget, Math.max(1, estimate(input, direction) / BLOCK_SIZE));
+                    admission.acquire(blocks);
+                    pool.execute(() -> {
+                        try {
+                            var sizes = convert(input, output, direction);
+                            pngBytes.addAndGet(sizes[0]);
+                            qoiBytes.addAndGet(sizes[1]);
+                            converted.incrementAndGet();
+                        } catch (IOException | RuntimeException e){
+                            failures.add(input + " : " + e.getMessage());
+                        } finally {
+                            admission.release(blocks);
+                        }
+                    });
+                } catch (IOException | RuntimeException e){
+                    failures.add(input + " : " + e.getMessage());
+                }
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        return new Summary(converted.get(), skipped.get(), List.copyOf(failures), pngBytes.get(), qoiBytes.get(), System.nanoTime() - start);
+    }
+
+    /**
+     * Convert a single file
+     * @return (long[]) - The size of the "PNG" file and the size of the "QOI" file
+     */
+    private static long[] convert(Path input, Path output, Direction direction) throws IOException {
+        Files.createDirectories(output.toAbsolutePath().getParent());
+        if (direction == Direction.PNG_TO_QOI){
+            QOIEncoder.qoiFile(Helper.readImage(input.toString()), output, false);
+        } else {
+            var png = new ByteArrayOutputStream();
+            ImageIO.write(QOIDecoder.decodeBufferedImage(Files.readAllBytes(input)), "png", png);
+            Helper.writeAtomically(output, false, ByteBuffer.wrap(png.toByteArray()));
+        }
+        var inputSize = Files.size(input);
+        var outputSize = Files.size(output);
+        return direction == Direction.PNG_TO_QOI ? new long[]{inputSize, outputSize} : new long[]{outputSize, inputSize};
+    }
+
+    /**
+     * Estimate the memory held by the conversion of an image at its peak from its header, without decoding it
+     * @return (long) - width * height * direction.bytesPerPixel, plus the size of a "QOI" input
+     */
+    private static long estimate(Path input, Direction direction) throws IOException {
+        if (direction == Direction.QOI_TO_PNG){
+            var info = QOIProbe.probe(input, false);
+            return (long) info.width() * info.height() * direction.bytesPerPixel + info.size();
+        }
+        try (var stream = ImageIO.createImageInputStream(input.toFile())){
+            var readers = stream == null ? null : ImageIO.getImageReaders(stream);
+            if (readers == null || !readers.hasNext())
+                return Helper.fail("Unsupported image");
+            var reader = readers.next();
+            try {
+                reader.setInput(stream);
+                return (long) reader.getWidth(0) * reader.getHeight(0) * direction.bytesPerPixel;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static boolean isUpToDate(Path input, Path output) throws IOException {
+        return Files.exists(output) && Files.getLastModifiedTime(output).compareTo(Files.getLastModifiedTime(input)) >= 0;
+    }
+
+    private static Path outputPath(Path source, Path target, Path input, Direction direction){
+        var relative = source.relativize(input).toString();
+        return target.resolve(relative.substring(0, relative.length() - direction.input.length()) + direction.output);
+    }
+
+}
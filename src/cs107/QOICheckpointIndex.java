@@ -0,0 +1,344 @@
+package cs107;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Optional index of decoder checkpoints for a "Quite Ok Image" file.
+ * Every {@code interval} pixels, the state of the decoder (offset of the next chunk,
+ * previous pixel, 64 entries index and pending run) is recorded so that the image
+ * can be decoded in independent segments, in parallel or from the middle.
+ * The index is stored in a sidecar file or appended after the "QOI_EOF":
+ * the chunks themselves are untouched and stay readable by any decoder.
+ * @since 1.3
+ */
+public final class QOICheckpointIndex {
+
+    /**
+     * Magic Number of a serialized index
+     */
+    public static final byte[] INDEX_MAGIC = new byte[]{'q', 'o', 'i', 'x'};
+
+    /**
+     * Default number of pixels between two checkpoints
+     */
+    public static final int DEFAULT_INTERVAL = 1 << 16;
+
+    private static final int HEADER_SIZE = INDEX_MAGIC.length + 4 + 4 + 4 + 4 + 8;
+    private static final int CHECKPOINT_SIZE = 8 + 4 + 4 + 64 * 4;
+    private static final int TRAILER_SIZE = 4 + INDEX_MAGIC.length;
+
+    /**
+     * State of the decoder right before decoding a given pixel
+     * @param pixel (long) - Number of pixels decoded before the checkpoint
+     * @param offset (long) - Index in the file of the next chunk to decode
+     * @param previous (int) - Previous pixel, ARGB packed
+     * @param run (int) - Number of pixels of the current run still to produce
+     * @param index (int[]) - The 64 entries index, ARGB packed
+     */
+    public record Checkpoint(long pixel, long offset, int previous, int run, int[] index) {
+
+        /**
+         * Restore the state of a decoder from this checkpoint
+         * @param state (QOIDecoderState) - State to overwrite
+         */
+        void restore(QOIDecoderState state){
+            state.position = (int) offset;
+            state.previous = previous;
+            state.run = run;
+            System.arraycopy(index, 0, state.index, 0, index.length);
+        }
+
+        private static Checkpoint of(long pixel, QOIDecoderState state){
+            return new Checkpoint(pixel, state.position, state.previous, state.run, state.index.clone());
+        }
+
+    }
+
+    private final int width;
+    private final int height;
+    private final int interval;
+    private final long end;
+    private final Checkpoint[] checkpoints;
+
+    private QOICheckpointIndex(int width, int height, int interval, long end, Checkpoint[] checkpoints){
+        this.width = width;
+        this.height = height;
+        this.interval = interval;
+        this.end = end;
+        this.checkpoints = checkpoints;
+    }
+
+    // ==================================================================================
+    // ================================ BUILDING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Build the index of a "Quite Ok Image" file using the default interval
+     * @param content (byte[]) - Content of the file
+     * @return (QOICheckpointIndex) - The index of the file
+     * @throws AssertionError if content is null
+     * @throws RuntimeException if the file is corrupted
+     */
+    public static QOICheckpointIndex build(byte[] content){
+        return build(content, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Build the index of a "Quite Ok Image" file
+     * @param content (byte[]) - Content of the file
+     * @param interval (int) - Number of pixels between two checkpoints
+     * @return (QOICheckpointIndex) - The index of the file
+     * @throws AssertionError if content is null or the interval is not positive
+     * @throws RuntimeException if the file is corrupted
+     */
+    public static QOICheckpointIndex build(byte[] content, int interval){
+        assert content != null && interval > 0;
+        if (content.length < QOISpecification.HEADER_SIZE)
+            return Helper.fail("The content is too small to be a \"Quite Ok Image\"");
+        var header = QOIDecoder.readHeader(content, 0);
+        var total = (long) header[0] * header[1];
+        var checkpoints = new Checkpoint[(int) ((total + interval - 1) / interval)];
+        var state = new QOIDecoderState();
+        state.position = QOISpecification.HEADER_SIZE;
+        var scratch = new int[Math.min(interval, 4096)];
+        var done = 0L;
+        for (var k = 0; k < checkpoints.length; ++k){
+            checkpoints[k] = Checkpoint.of(done, state);
+            var next = Math.min(total, done + interval);
+            while (done < next){
+                var n = (int) Math.min(scratch.length, next - done);
+                state.decodeFully(content, content.length, scratch, 0, n);
+                done += n;
+            }
+        }
+        state.checkComplete();
+        QOIDecoder.checkEof(content, state.position);
+        return new QOICheckpointIndex(header[0], header[1], interval, state.position, checkpoints);
+    }
+
+    // ==================================================================================
+    // ================================ ACCESS METHODS ==================================
+    // ==================================================================================
+
+    /**
+     * @return (int) - Width of the indexed image
+     */
+    public int width(){
+        return width;
+    }
+
+    /**
+     * @return (int) - Height of the indexed image
+     */
+    public int height(){
+        return height;
+    }
+
+    /**
+     * @return (int) - Number of pixels between two checkpoints
+     */
+    public int interval(){
+        return interval;
+    }
+
+    /**
+     * @return (int) - Number of checkpoints
+     */
+    public int size(){
+        return checkpoints.length;
+    }
+
+    /**
+     * Find the last checkpoint before a given pixel
+     * @param pixel (long) - Pixel to reach, counted from the start of the image
+     * @return (Checkpoint) - The closest checkpoint such that checkpoint.pixel() &lt;= pixel
+     * @throws AssertionError if the pixel is outside the image
+     */
+    public Checkpoint checkpointBefore(long pixel){
+        assert pixel >= 0 && pixel < (long) width * height;
+        return checkpoints[(int) (pixel / interval)];
+    }
+
+    /**
+     * Make sure the index describes the given file, possibly followed by an embedded index
+     * @return (int[]) - The header of the file, as given by QOIDecoder::readHeader
+     * @throws RuntimeException if it is not the case
+     */
+    int[] checkMatches(byte[] content){
+        if (content.length < QOISpecification.HEADER_SIZE)
+            return Helper.fail("The content is too small to be a \"Quite Ok Image\"");
+        var header = QOIDecoder.readHeader(content, 0);
+        if (header[0] != width || header[1] != height)
+            Helper.fail("The index describes a %d x %d image, not a %d x %d one", width, height, header[0], header[1]);
+        var chunksEnd = embeddedStart(content) - QOISpecification.QOI_EOF.length;
+        if (end != chunksEnd)
+            Helper.fail("The index describes chunks ending at %d, not at %d", end, chunksEnd);
+        QOIDecoder.checkEof(content, (int) end);
+        return header;
+    }
+
+    // ==================================================================================
+    // ================================ DECODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Decode a "Quite Ok Image" file in parallel, one task per checkpoint
+     * @param content (byte[]) - Content of the file, as given to {@link #build(byte[], int)}
+     * @param pool (ForkJoinPool) - Pool running the tasks
+     * @return (Helper.Image) - Decoded image
+     * @throws AssertionError if one of the parameters is null
+     * @throws RuntimeException if the file is corrupted or does not match the index
+     */
+    public Helper.Image decodeParallel(byte[] content, ForkJoinPool pool){
+        assert content != null && pool != null;
+        var header = checkMatches(content);
+        var rows = new int[height][width];
+        var total = (long) width * height;
+        var tasks = new ForkJoinTask<?>[checkpoints.length];
+        for (var k = 0; k < checkpoints.length; ++k){
+            var checkpoint = checkpoints[k];
+            var last = k == checkpoints.length - 1;
+            tasks[k] = ForkJoinTask.adapt(() -> {
+                var state = new QOIDecoderState();
+                checkpoint.restore(state);
+                state.decodeFully(content, (int) end, rows, checkpoint.pixel(), Math.min(total, checkpoint.pixel() + interval));
+                if (last)
+                    state.checkComplete();
+            });
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+        return Helper.generateImage(rows, (byte) header[2], (byte) header[3]);
+    }
+
+    // ==================================================================================
+    // ============================== SERIALIZATION METHODS =============================
+    // ==================================================================================
+
+    /**
+     * Serialize the index, e.g. to store it in a sidecar file
+     * @return (byte[]) - Binary representation of the index
+     */
+    public byte[] toBytes(){
+        var buffer = ByteBuffer.allocate(HEADER_SIZE + checkpoints.length * CHECKPOINT_SIZE);
+        buffer.put(INDEX_MAGIC).putInt(width).putInt(height).putInt(interval).putInt(checkpoints.length).putLong(end);
+        for (var checkpoint : checkpoints){
+            buffer.putLong(checkpoint.offset()).putInt(checkpoint.previous()).putInt(checkpoint.run());
+            for (var px : checkpoint.index()){
+                buffer.putInt(px);
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Read an index serialized with {@link #toBytes()}
+     * @param bytes (byte[]) - Binary representation of the index
+     * @return (QOICheckpointIndex) - The index
+     * @throws AssertionError if bytes is null
+     * @throws RuntimeException if the index is corrupted
+     */
+    public static QOICheckpointIndex fromBytes(byte[] bytes){
+        assert bytes != null;
+        return fromBytes(ByteBuffer.wrap(bytes));
+    }
+
+    private static QOICheckpointIndex fromBytes(ByteBuffer buffer){
+        if (buffer.remaining() < HEADER_SIZE)
+            return Helper.fail("The index is too small");
+        var magic = new byte[INDEX_MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, INDEX_MAGIC))
+            return Helper.fail("Invalid index magic number");
+        var width = buffer.getInt();
+        var height = buffer.getInt();
+        var interval = buffer.getInt();
+        var count = buffer.getInt();
+        var end = buffer.getLong();
+        if (width <= 0 || height <= 0 || interval <= 0
+                || count != ((long) width * height + interval - 1) / interval
+                || buffer.remaining() != (long) count * CHECKPOINT_SIZE)
+            return Helper.fail("Corrupted index");
+        if (end < QOISpecification.HEADER_SIZE || end > Integer.MAX_VALUE - QOISpecification.QOI_EOF.length)
+            return Helper.fail("Corrupted index : invalid end of the chunks %d", end);
+        var checkpoints = new Checkpoint[count];
+        var last = (long) QOISpecification.HEADER_SIZE;
+        for (var k = 0; k < count; ++k){
+            var offset = buffer.getLong();
+            var previous = buffer.getInt();
+            var run = buffer.getInt();
+            // Several checkpoints can share an offset when they fall in the same run
+            if (offset < last || offset > end || k == 0 && offset != last)
+                return Helper.fail("Corrupted index : invalid offset %d of checkpoint %d", offset, k);
+            if (run < 0 || run >= QOISpecification.QOI_OP_RUN_MAX || k == 0 && run != 0)
+                return Helper.fail("Corrupted index : invalid run %d of checkpoint %d", run, k);
+            last = offset;
+            var index = new int[64];
+            for (var i = 0; i < index.length; ++i){
+                index[i] = buffer.getInt();
+            }
+            checkpoints[k] = new Checkpoint((long) k * interval, offset, previous, run, index);
+        }
+        return new QOICheckpointIndex(width, height, interval, end, checkpoints);
+    }
+
+    /**
+     * Append the index after the "QOI_EOF" of a file, followed by its size and {@link #INDEX_MAGIC}
+     * @param content (byte[]) - Content of the file
+     * @return (byte[]) - Content of the file with the embedded index
+     * @throws AssertionError if content is null
+     * @throws RuntimeException if the index does not match the file
+     */
+    public byte[] embed(byte[] content){
+        assert content != null;
+        checkMatches(content);
+        var index = toBytes();
+        return ByteBuffer.allocate((int) end + QOISpecification.QOI_EOF.length + index.length + TRAILER_SIZE)
+                .put(content, 0, (int) end + QOISpecification.QOI_EOF.length)
+                .put(index)
+                .putInt(index.length)
+                .put(INDEX_MAGIC)
+                .array();
+    }
+
+    /**
+     * Extract the index embedded in a file with {@link #embed(byte[])}
+     * @param content (byte[]) - Content of the file
+     * @return (Optional&lt;QOICheckpointIndex&gt;) - The embedded index, if any
+     * @throws AssertionError if content is null
+     * @throws RuntimeException if the embedded index is corrupted
+     */
+    public static Optional<QOICheckpointIndex> extract(byte[] content){
+        assert content != null;
+        var start = embeddedStart(content);
+        if (start == content.length)
+            return Optional.empty();
+        var index = fromBytes(ByteBuffer.wrap(content, start, content.length - TRAILER_SIZE - start).slice());
+        if (index.end != start - QOISpecification.QOI_EOF.length)
+            return Helper.fail("The embedded index describes chunks ending at %d, not at %d",
+                    index.end, start - QOISpecification.QOI_EOF.length);
+        return Optional.of(index);
+    }
+
+    /**
+     * Find where the index embedded with {@link #embed(byte[])} starts, i.e. right after the "QOI_EOF"
+     * @return (int) - Index of the first byte of the embedded index, the length of the content if there is none
+     * @throws RuntimeException if the size of the embedded index is corrupted
+     */
+    private static int embeddedStart(byte[] content){
+        var minimum = QOISpecification.HEADER_SIZE + QOISpecification.QOI_EOF.length + HEADER_SIZE + TRAILER_SIZE;
+        if (content.length < minimum)
+            return content.length;
+        var magic = Arrays.copyOfRange(content, content.length - INDEX_MAGIC.length, content.length);
+        if (!Arrays.equals(magic, INDEX_MAGIC))
+            return content.length;
+        var length = ByteBuffer.wrap(content, content.length - TRAILER_SIZE, 4).getInt();
+        if (length < HEADER_SIZE || length > content.length - TRAILER_SIZE)
+            return Helper.fail("Corrupted embedded index");
+        return content.length - TRAILER_SIZE - length;
+    }
+
+}
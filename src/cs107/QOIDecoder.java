@@ -1,5 +1,16 @@
 package cs107;
 
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
 import static cs107.Helper.Image;
 
 /**
@@ -27,7 +38,41 @@ public final class QOIDecoder {
      * @throws AssertionError See handouts section 6.1
      */
     public static int[] decodeHeader(byte[] header){
-        return Helper.fail("Not Implemented");
+        assert header != null && header.length == QOISpecification.HEADER_SIZE;
+        return readHeader(header, 0);
+    }
+
+    /**
+     * Extract useful information from a "Quite Ok Image" header stored in a buffer.
+     * Unlike {@link #decodeHeader(byte[])}, a corrupted header makes the program fail
+     * even if the assertions are disabled since the data usually comes from the outside.
+     * @param src (byte[]) - Buffer containing the header
+     * @param off (int) - Index of the header in the buffer
+     * @return (int[]) - Array such as its content is {width, height, channels, color space}
+     * @throws AssertionError if the buffer is null or too small
+     * @throws RuntimeException if the header is corrupted
+     */
+    static int[] readHeader(byte[] src, int off){
+        assert src != null && off >= 0 && off + QOISpecification.HEADER_SIZE <= src.length;
+        for (var i = 0; i < QOISpecification.QOI_MAGIC.length; ++i){
+            if (src[off + i] != QOISpecification.QOI_MAGIC[i])
+                return Helper.fail("Invalid \"Quite Ok Image\" magic number");
+        }
+        var width = readInt(src, off + 4);
+        var height = readInt(src, off + 8);
+        var channels = src[off + 12];
+        var colorSpace = src[off + 13];
+        if (width <= 0 || height <= 0)
+            return Helper.fail("Invalid image dimensions : %d x %d", width, height);
+        if (channels != QOISpecification.RGB && channels != QOISpecification.RGBA)
+            return Helper.fail("Invalid number of channels : %d", channels);
+        if (colorSpace != QOISpecification.sRGB && colorSpace != QOISpecification.ALL)
+            return Helper.fail("Invalid color space : %d", colorSpace);
+        return new int[]{width, height, channels, colorSpace};
+    }
+
+    private static int readInt(byte[] src, int off){
+        return (src[off] & 0xFF) << 24 | (src[off + 1] & 0xFF) << 16 | (src[off + 2] & 0xFF) << 8 | (src[off + 3] & 0xFF);
     }
 
     // ==================================================================================
@@ -45,7 +90,12 @@ public final class QOIDecoder {
      * @throws AssertionError See handouts section 6.2.1
      */
     public static int decodeQoiOpRGB(byte[][] buffer, byte[] input, byte alpha, int position, int idx){
-        return Helper.fail("Not Implemented");
+        assert buffer != null && input != null;
+        assert position >= 0 && position < buffer.length && buffer[position] != null && buffer[position].length == 4;
+        assert idx >= 0 && idx + 3 <= input.length;
+        System.arraycopy(input, idx, buffer[position], QOISpecification.r, 3);
+        buffer[position][QOISpecification.a] = alpha;
+        return 3;
     }
 
     /**
@@ -58,7 +108,11 @@ public final class QOIDecoder {
      * @throws AssertionError See handouts section 6.2.2
      */
     public static int decodeQoiOpRGBA(byte[][] buffer, byte[] input, int position, int idx){
-        return Helper.fail("Not Implemented");
+        assert buffer != null && input != null;
+        assert position >= 0 && position < buffer.length && buffer[position] != null && buffer[position].length == 4;
+        assert idx >= 0 && idx + 4 <= input.length;
+        System.arraycopy(input, idx, buffer[position], QOISpecification.r, 4);
+        return 4;
     }
 
     /**
@@ -69,7 +123,9 @@ public final class QOIDecoder {
      * @throws AssertionError See handouts section 6.2.4
      */
     public static byte[] decodeQoiOpDiff(byte[] previousPixel, byte chunk){
-        return Helper.fail("Not Implemented");
+        assert previousPixel != null && previousPixel.length == 4;
+        assert (byte) (chunk & 0b11_00_00_00) == QOISpecification.QOI_OP_DIFF_TAG;
+        return decodePixel(previousPixel, chunk);
     }
 
     /**
@@ -80,7 +136,10 @@ public final class QOIDecoder {
      * @throws AssertionError See handouts section 6.2.5
      */
     public static byte[] decodeQoiOpLuma(byte[] previousPixel, byte[] data){
-        return Helper.fail("Not Implemented");
+        assert previousPixel != null && previousPixel.length == 4;
+        assert data != null && data.length == 2;
+        assert (byte) (data[0] & 0b11_00_00_00) == QOISpecification.QOI_OP_LUMA_TAG;
+        return decodePixel(previousPixel, data);
     }
 
     /**
@@ -93,7 +152,31 @@ public final class QOIDecoder {
      * @throws AssertionError See handouts section 6.2.6
      */
     public static int decodeQoiOpRun(byte[][] buffer, byte[] pixel, byte chunk, int position){
-        return Helper.fail("Not Implemented");
+        assert buffer != null && pixel != null && pixel.length == 4;
+        var count = (chunk & 0x3F) + 1;
+        assert position >= 0 && position + count <= buffer.length;
+        for (var i = position; i < position + count; ++i){
+            assert buffer[i] != null && buffer[i].length == 4;
+            System.arraycopy(pixel, 0, buffer[i], 0, 4);
+        }
+        return count - 1;
+    }
+
+    /**
+     * Decode a single "QOI_OP_DIFF" or "QOI_OP_LUMA" chunk with the tables of the packed decoder
+     * @param previousPixel (byte[]) - The previous pixel, in the RGBA order
+     * @param chunk (byte[]) - The chunk to decode
+     * @return (byte[]) - The newly created pixel, in the RGBA order
+     */
+    private static byte[] decodePixel(byte[] previousPixel, byte ... chunk){
+        var px = new int[1];
+        PixelFormat.RGBA.load(previousPixel, 0, px, 0, 1);
+        var state = new QOIDecoderState();
+        state.previous = px[0];
+        state.decodeFully(chunk, chunk.length, px, 0, 1);
+        var pixel = new byte[4];
+        PixelFormat.RGBA.store(px, 0, 1, pixel, 0);
+        return pixel;
     }
 
     // ==================================================================================
@@ -109,7 +192,13 @@ public final class QOIDecoder {
      * @throws AssertionError See handouts section 6.3
      */
     public static byte[][] decodeData(byte[] data, int width, int height){
-        return Helper.fail("Not Implemented");
+        assert data != null && width > 0 && height > 0;
+        var pixels = new int[width * height];
+        decodeData(data, width, height, pixels, 0);
+        var buffer = new byte[pixels.length][4];
+        for (var i = 0; i < pixels.length; ++i)
+            PixelFormat.RGBA.store(pixels, i, i + 1, buffer[i], 0);
+        return buffer;
     }
 
     /**
@@ -119,7 +208,326 @@ public final class QOIDecoder {
      * @throws AssertionError if content is null
      */
     public static Image decodeQoiFile(byte[] content){
-        return Helper.fail("Not Implemented");
+        assert content != null;
+        if (content.length < QOISpecification.HEADER_SIZE + QOISpecification.QOI_EOF.length)
+            return Helper.fail("The content is too small to be a \"Quite Ok Image\"");
+        var header = readHeader(content, 0);
+        var rows = new int[header[1]][header[0]];
+        var state = new QOIDecoderState();
+        state.position = QOISpecification.HEADER_SIZE;
+        for (var row : rows)
+            state.decodeFully(content, content.length, row, 0, row.length);
+        state.checkComplete();
+        checkEof(content, state.position);
+        return Helper.generateImage(rows, (byte) header[2], (byte) header[3]);
+    }
+
+    /**
+     * Decode a file using the "Quite Ok Image" Protocol, straight from a read-only mapping of the file.
+     * The chunks are read from the mapping itself, the compressed bytes are never copied
+     * in the heap : the page cache of the system is used instead. A file too large for
+     * a single mapping (more than 2 GiB) is mapped and decoded window after window.
+     * @param file (Path) - File to decode
+     * @return (Image) - Decoded image
+     * @throws AssertionError if file is null
+     * @throws RuntimeException if the file is corrupted
+     * @throws IOException if the file cannot be mapped
+     */
+    public static Image decodeQoiFile(Path file) throws IOException {
+        assert file != null;
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)){
+            return decodeMapped(channel, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Decode a file by mapping at most windowSize bytes at once
+     * @param channel (FileChannel) - Channel of the file, readable
+     * @param windowSize (int) - Maximum size of a mapping, at least the size of the largest chunk
+     * @return (Image) - Decoded image
+     * @throws RuntimeException if the file is corrupted
+     * @throws IOException if the file cannot be mapped
+     */
+    static Image decodeMapped(FileChannel channel, int windowSize) throws IOException {
+        assert windowSize >= QOISpecification.HEADER_SIZE;
+        var size = channel.size();
+        if (size < QOISpecification.HEADER_SIZE + QOISpecification.QOI_EOF.length)
+            return Helper.fail("The file is too small to be a \"Quite Ok Image\"");
+        var window = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, windowSize));
+        var bytes = new byte[QOISpecification.HEADER_SIZE];
+        window.get(0, bytes);
+        var header = readHeader(bytes, 0);
+        var rows = new int[header[1]][header[0]];
+        var state = new QOIDecoderState();
+        state.position = QOISpecification.HEADER_SIZE;
+        var base = 0L; // Index in the file of the first byte of the window
+        for (var row : rows){
+            var x = state.decode(window, window.limit(), row, 0, row.length);
+            while (x < row.length){
+                if (base + window.limit() == size)
+                    Helper.fail("Unexpected end of data at index %d", base + state.position);
+                base += state.position;
+                window = channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(size - base, windowSize));
+                state.position = 0;
+                x += state.decode(window, window.limit(), row, x, row.length);
+            }
+        }
+        state.checkComplete();
+        var eof = QOISpecification.QOI_EOF;
+        var end = base + state.position;
+        if (size - end < eof.length)
+            Helper.fail("Expected \"QOI_EOF\" at index %d", end);
+        if (window.limit() - state.position < eof.length)
+            window = channel.map(FileChannel.MapMode.READ_ONLY, end, eof.length);
+        else
+            window = window.slice(state.position, eof.length);
+        for (var i = 0; i < eof.length; ++i){
+            if (window.get(i) != eof[i])
+                Helper.fail("Invalid \"QOI_EOF\"");
+        }
+        return Helper.generateImage(rows, (byte) header[2], (byte) header[3]);
+    }
+
+    // ==================================================================================
+    // ========================== DIRECT DECODING METHODS ===============================
+    // ==================================================================================
+
+    /**
+     * Decode the given data straight into ARGB packed pixels
+     * @param data (byte[]) - Data to decode
+     * @param width (int) - The width of the expected output
+     * @param height (int) - The height of the expected output
+     * @param dst (int[]) - Buffer where to store the pixels, row after row
+     * @param off (int) - Index in the buffer of the first pixel
+     * @throws AssertionError if the data or the buffer is null or the buffer is too small
+     * @throws RuntimeException if the data does not describe exactly width * height pixels
+     */
+    public static void decodeData(byte[] data, int width, int height, int[] dst, int off){
+        assert data != null && dst != null;
+        assert width > 0 && height > 0 && off >= 0 && off + (long) width * height <= dst.length;
+        var state = new QOIDecoderState();
+        state.decodeFully(data, data.length, dst, off, off + width * height);
+        state.checkComplete();
+    }
+
+    /**
+     * Decode the given data straight into ARGB packed rows
+     * @param data (byte[]) - Data to decode
+     * @param dst (int[][]) - Rows where to store the pixels, their size gives the size of the image
+     * @throws AssertionError if the data, the rows or one of the rows is null
+     * @throws RuntimeException if the data does not describe exactly the number of pixels of dst
+     */
+    public static void decodeData(byte[] data, int[][] dst){
+        assert data != null && dst != null;
+        var state = new QOIDecoderState();
+        for (var row : dst){
+            assert row != null;
+            state.decodeFully(data, data.length, row, 0, row.length);
+        }
+        state.checkComplete();
+    }
+
+    /**
+     * Decode the given data straight into interleaved bytes
+     * @param data (byte[]) - Data to decode
+     * @param width (int) - The width of the expected output
+     * @param height (int) - The height of the expected output
+     * @param format (PixelFormat) - Layout of the bytes of a pixel
+     * @param dst (byte[]) - Buffer where to store the pixels, row after row
+     * @param off (int) - Index in the buffer of the first pixel
+     * @throws AssertionError if one of the parameters is null or the buffer is too small
+     * @throws RuntimeException if the data does not describe exactly width * height pixels
+     */
+    public static void decodeData(byte[] data, int width, int height, PixelFormat format, byte[] dst, int off){
+        assert data != null && format != null && dst != null;
+        assert width > 0 && height > 0;
+        assert off >= 0 && off + (long) width * height * format.bytesPerPixel() <= dst.length;
+        var state = new QOIDecoderState();
+        var row = new int[width];
+        for (var y = 0; y < height; ++y){
+            state.decodeFully(data, data.length, row, 0, width);
+            format.store(row, 0, width, dst, off);
+            off += width * format.bytesPerPixel();
+        }
+        state.checkComplete();
+    }
+
+    /**
+     * Decode the given data straight into interleaved bytes, starting at the position
+     * of the buffer. The buffer can be direct, its position is moved after the last pixel.
+     * @param data (byte[]) - Data to decode
+     * @param width (int) - The width of the expected output
+     * @param height (int) - The height of the expected output
+     * @param format (PixelFormat) - Layout of the bytes of a pixel
+     * @param dst (ByteBuffer) - Buffer where to store the pixels, row after row
+     * @throws AssertionError if one of the parameters is null or the buffer is too small
+     * @throws RuntimeException if the data does not describe exactly width * height pixels
+     */
+    public static void decodeData(byte[] data, int width, int height, PixelFormat format, ByteBuffer dst){
+        assert data != null && format != null && dst != null;
+        assert width > 0 && height > 0;
+        assert (long) width * height * format.bytesPerPixel() <= dst.remaining();
+        var state = new QOIDecoderState();
+        var row = new int[width];
+        var bytes = new byte[width * format.bytesPerPixel()];
+        for (var y = 0; y < height; ++y){
+            state.decodeFully(data, data.length, row, 0, width);
+            format.store(row, 0, width, bytes, 0);
+            dst.put(bytes);
+        }
+        state.checkComplete();
+    }
+
+    /**
+     * Decode the given data straight into the raster of the image.
+     * The size of the image gives the expected size of the output.
+     * @apiNote Supported types are TYPE_INT_ARGB, TYPE_INT_RGB, TYPE_4BYTE_ABGR and TYPE_3BYTE_BGR
+     * @param data (byte[]) - Data to decode
+     * @param dst (BufferedImage) - Image where to store the pixels
+     * @throws AssertionError if one of the parameters is null
+     * @throws RuntimeException if the type of the image is not supported
+     *  or the data does not describe exactly the number of pixels of the image
+     */
+    public static void decodeData(byte[] data, BufferedImage dst){
+        assert data != null && dst != null;
+        var state = new QOIDecoderState();
+        decodeRaster(state, data, data.length, dst);
+        state.checkComplete();
+    }
+
+    /**
+     * Decode a file using the "Quite Ok Image" Protocol straight into a {@link BufferedImage}.
+     * The image is of type TYPE_INT_ARGB if the file has 4 channels, TYPE_INT_RGB otherwise.
+     * @param content (byte[]) - Content of the file to decode
+     * @return (BufferedImage) - Decoded image
+     * @throws AssertionError if content is null
+     * @throws RuntimeException if the file is corrupted
+     */
+    public static BufferedImage decodeBufferedImage(byte[] content){
+        assert content != null;
+        if (content.length < QOISpecification.HEADER_SIZE + QOISpecification.QOI_EOF.length)
+            return Helper.fail("The content is too small to be a \"Quite Ok Image\"");
+        var header = readHeader(content, 0);
+        var type = header[2] == QOISpecification.RGBA ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        var image = new BufferedImage(header[0], header[1], type);
+        var state = new QOIDecoderState();
+        state.position = QOISpecification.HEADER_SIZE;
+        decodeRaster(state, content, content.length, image);
+        state.checkComplete();
+        checkEof(content, state.position);
+        return image;
+    }
+
+    private static void decodeRaster(QOIDecoderState state, byte[] src, int limit, BufferedImage dst){
+        var raster = dst.getRaster();
+        var width = dst.getWidth();
+        var height = dst.getHeight();
+        switch (dst.getType()){
+            case BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB -> {
+                var buffer = (DataBufferInt) raster.getDataBuffer();
+                var model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+                var stride = model.getScanlineStride();
+                var base = buffer.getOffset() - raster.getSampleModelTranslateY() * stride - raster.getSampleModelTranslateX();
+                var pixels = buffer.getData();
+                for (var y = 0; y < height; ++y){
+                    var start = base + y * stride;
+                    state.decodeFully(src, limit, pixels, start, start + width);
+                }
+            }
+            case BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_3BYTE_BGR -> {
+                var format = dst.getType() == BufferedImage.TYPE_4BYTE_ABGR ? PixelFormat.ABGR : PixelFormat.BGR;
+                var buffer = (DataBufferByte) raster.getDataBuffer();
+                var model = (ComponentSampleModel) raster.getSampleModel();
+                var stride = model.getScanlineStride();
+                var base = buffer.getOffset()
+                        - raster.getSampleModelTranslateY() * stride
+                        - raster.getSampleModelTranslateX() * model.getPixelStride();
+                var bytes = buffer.getData();
+                var row = new int[width];
+                for (var y = 0; y < height; ++y){
+                    state.decodeFully(src, limit, row, 0, width);
+                    format.store(row, 0, width, bytes, base + y * stride);
+                }
+            }
+            default -> Helper.fail("Cannot decode into this image, image.getType() == %d", dst.getType());
+        }
+    }
+
+    /**
+     * Check that the "QOI_EOF" is stored at the given index. Like the reference
+     * decoder, the bytes stored after it (e.g. an embedded {@link QOICheckpointIndex}) are ignored.
+     * @throws RuntimeException if it is not the case
+     */
+    static void checkEof(byte[] content, int position){
+        var eof = QOISpecification.QOI_EOF;
+        if (content.length - position < eof.length)
+            Helper.fail("Expected \"QOI_EOF\" at index %d", position);
+        for (var i = 0; i < eof.length; ++i){
+            if (content[position + i] != eof[i])
+                Helper.fail("Invalid \"QOI_EOF\"");
+        }
+    }
+
+    // ==================================================================================
+    // ========================== REGION DECODING METHODS ===============================
+    // ==================================================================================
+
+    /**
+     * Decode the rows [y0, y1) of a "Quite Ok Image" file.
+     * Only the region is allocated, the previous rows are skipped.
+     * @param content (byte[]) - Content of the file to decode
+     * @param y0 (int) - First row to decode (inclusive)
+     * @param y1 (int) - Last row to decode (exclusive)
+     * @return (Image) - Decoded region
+     * @throws AssertionError if content is null or the rows are outside the image
+     * @throws RuntimeException if the file is corrupted
+     */
+    public static Image decodeRegion(byte[] content, int y0, int y1){
+        return decodeRegion(content, null, y0, y1, 0, -1);
+    }
+
+    /**
+     * Decode the region [x0, x1) x [y0, y1) of a "Quite Ok Image" file.
+     * Only the region is allocated. If an index is given, decoding starts from its
+     * closest checkpoint, otherwise the previous pixels are skipped from the start.
+     * @param content (byte[]) - Content of the file to decode
+     * @param index (QOICheckpointIndex) - Index of the file, or null
+     * @param y0 (int) - First row to decode (inclusive)
+     * @param y1 (int) - Last row to decode (exclusive)
+     * @param x0 (int) - First column to decode (inclusive)
+     * @param x1 (int) - Last column to decode (exclusive), -1 for the width of the image
+     * @return (Image) - Decoded region
+     * @throws AssertionError if content is null or the region is outside the image
+     * @throws RuntimeException if the file is corrupted or does not match the index
+     */
+    public static Image decodeRegion(byte[] content, QOICheckpointIndex index, int y0, int y1, int x0, int x1){
+        assert content != null;
+        if (content.length < QOISpecification.HEADER_SIZE)
+            return Helper.fail("The content is too small to be a \"Quite Ok Image\"");
+        var header = index == null ? readHeader(content, 0) : index.checkMatches(content);
+        var width = header[0];
+        var height = header[1];
+        if (x1 == -1)
+            x1 = width;
+        assert 0 <= y0 && y0 < y1 && y1 <= height;
+        assert 0 <= x0 && x0 < x1 && x1 <= width;
+        var state = new QOIDecoderState();
+        var start = (long) y0 * width + x0;
+        if (index != null){
+            var checkpoint = index.checkpointBefore(start);
+            checkpoint.restore(state);
+            state.skipFully(content, content.length, start - checkpoint.pixel());
+        } else {
+            state.position = QOISpecification.HEADER_SIZE;
+            state.skipFully(content, content.length, start);
+        }
+        var region = new int[y1 - y0][x1 - x0];
+        for (var y = 0; y < region.length; ++y){
+            if (y > 0)
+                state.skipFully(content, content.length, width - (x1 - x0));
+            state.decodeFully(content, content.length, region[y], 0, x1 - x0);
+        }
+        return Helper.generateImage(region, (byte) header[2], (byte) header[3]);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,302 @@
+package cs107;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static cs107.QOISpecification.*;
+
+/**
+ * State of a "Quite Ok Image" decoder producing ARGB packed pixels.
+ * Holds the previous pixel, the 64 entries index, the pending run and the
+ * position in the input so that a stream can be decoded piece by piece.
+ * @since 1.3
+ */
+final class QOIDecoderState {
+
+    int previous = START_PIXEL_ARGB;
+
+    int run = 0;
+
+    final int[] index = new int[64];
+
+    /**
+     * Index in the input of the next chunk to decode
+     */
+    int position = 0;
+
+    /**
+     * Number of pixels decoded at once when skipping a part of the image
+     */
+    private static final int SKIP_BUFFER_SIZE = 256;
+
+    // Kinds of chunks, stored in bits 24 to 27 of an entry of OPS
+    private static final int INDEX = 0;
+    private static final int DIFF = 1;
+    private static final int LUMA = 2;
+    private static final int RUN = 3;
+    private static final int RGB = 4;
+    private static final int RGBA = 5;
+
+    /**
+     * Decoding table of the first byte of a chunk. Every entry holds the size of the chunk
+     * (bits 28 to 31), its kind (bits 24 to 27) and a payload (bits 0 to 23) :
+     * the index position for "QOI_OP_INDEX", the length of the run for "QOI_OP_RUN",
+     * the packed (dr, dg, db) for "QOI_OP_DIFF" and the packed (dg, dg, dg) for "QOI_OP_LUMA".
+     */
+    private static final int[] OPS = new int[256];
+
+    /**
+     * Packed (dr - dg, 0, db - dg) of every second byte of a "QOI_OP_LUMA" chunk
+     */
+    private static final int[] LUMA_DELTAS = new int[256];
+
+    static {
+        for (var b1 = 0; b1 < 256; ++b1){
+            OPS[b1] = switch (b1 >> 6){
+                case 0 -> op(1, INDEX, b1);
+                case 1 -> op(1, DIFF, delta(((b1 >> 4) & 0x03) - 2, ((b1 >> 2) & 0x03) - 2, (b1 & 0x03) - 2));
+                case 2 -> op(2, LUMA, delta((b1 & 0x3F) - 32, (b1 & 0x3F) - 32, (b1 & 0x3F) - 32));
+                default -> op(1, RUN, (b1 & 0x3F) + 1);
+            };
+            LUMA_DELTAS[b1] = delta((b1 >> 4) - 8, 0, (b1 & 0x0F) - 8);
+        }
+        OPS[QOI_OP_RGB_TAG & 0xFF] = op(4, RGB, 0);
+        OPS[QOI_OP_RGBA_TAG & 0xFF] = op(5, RGBA, 0);
+    }
+
+    /**
+     * Restore the initial state, to reuse this object for another image
+     */
+    void reset(){
+        previous = START_PIXEL_ARGB;
+        run = 0;
+        position = 0;
+        Arrays.fill(index, 0);
+    }
+
+    // ==================================================================================
+    // ================================ DECODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Decode pixels in dst[from, to) from the chunks stored in src[position, limit).
+     * A chunk is only consumed if all its bytes are available.
+     * @param src (byte[]) - Chunks to decode
+     * @param limit (int) - Index in src right after the last available byte
+     * @param dst (int[]) - Buffer where to store the ARGB packed pixels
+     * @param from (int) - First pixel to decode (inclusive)
+     * @param to (int) - Last pixel to decode (exclusive)
+     * @return (int) - The number of decoded pixels
+     */
+    int decode(byte[] src, int limit, int[] dst, int from, int to){
+        var i = from;
+        var p = position;
+        var px = previous;
+        var count = run;
+        var index = this.index;
+        while (i < to){
+            if (count > 0){
+                var n = Math.min(count, to - i);
+                Arrays.fill(dst, i, i + n, px);
+                i += n;
+                count -= n;
+                continue;
+            }
+            if (p >= limit)
+                break;
+            var op = OPS[src[p] & 0xFF];
+            var size = op >>> 28;
+            if (p + size > limit)
+                break;
+            switch ((op >> 24) & 0x0F){
+                case INDEX -> px = index[op & 0x3F];
+                case DIFF -> px = add(px, op);
+                case LUMA -> px = add(add(px, op), LUMA_DELTAS[src[p + 1] & 0xFF]);
+                case RUN -> count = op & 0xFF;
+                case RGB -> px = px & 0xFF_00_00_00 | (src[p + 1] & 0xFF) << 16 | (src[p + 2] & 0xFF) << 8 | (src[p + 3] & 0xFF);
+                default -> px = (src[p + 4] & 0xFF) << 24 | (src[p + 1] & 0xFF) << 16 | (src[p + 2] & 0xFF) << 8 | (src[p + 3] & 0xFF);
+            }
+            p += size;
+            // Like the reference decoder, the pixel of a run is indexed too : it matters when
+            // the image starts with a run, since the start pixel is not in the index yet
+            index[hash(px)] = px;
+            if (count > 0)
+                continue;
+            dst[i++] = px;
+        }
+        position = p;
+        previous = px;
+        run = count;
+        return i - from;
+    }
+
+    /**
+     * Decode pixels in dst[from, to) from the chunks stored in src[position, limit),
+     * read with absolute gets so that a mapped file is decoded without copying it.
+     * Every chunk is read with a single 8 bytes get. Same as {@link #decode(byte[], int, int[], int, int)} otherwise.
+     * @param src (ByteBuffer) - Chunks to decode, heap, direct or mapped, in big-endian order
+     * @param limit (int) - Index in src right after the last available byte
+     * @param dst (int[]) - Buffer where to store the ARGB packed pixels
+     * @param from (int) - First pixel to decode (inclusive)
+     * @param to (int) - Last pixel to decode (exclusive)
+     * @return (int) - The number of decoded pixels
+     */
+    int decode(ByteBuffer src, int limit, int[] dst, int from, int to){
+        assert src.order() == ByteOrder.BIG_ENDIAN;
+        var i = from;
+        var p = position;
+        var px = previous;
+        var count = run;
+        var index = this.index;
+        while (i < to){
+            if (count > 0){
+                var n = Math.min(count, to - i);
+                Arrays.fill(dst, i, i + n, px);
+                i += n;
+                count -= n;
+                continue;
+            }
+            long word; // The bytes [p, p + 8), the first one in the upper bits
+            if (p <= limit - Long.BYTES){
+                word = src.getLong(p);
+            } else if (p < limit){
+                word = 0;
+                for (var k = 0; k < limit - p; ++k){
+                    word |= (src.get(p + k) & 0xFFL) << (56 - 8 * k);
+                }
+            } else {
+                break;
+            }
+            var op = OPS[(int) (word >>> 56)];
+            var size = op >>> 28;
+            if (p + size > limit)
+                break;
+            switch ((op >> 24) & 0x0F){
+                case INDEX -> px = index[op & 0x3F];
+                case DIFF -> px = add(px, op);
+                case LUMA -> px = add(add(px, op), LUMA_DELTAS[(int) (word >>> 48) & 0xFF]);
+                case RUN -> count = op & 0xFF;
+                case RGB -> px = px & 0xFF_00_00_00 | (int) (word >>> 32) & 0x00_FF_FF_FF;
+                default -> px = (int) (word >>> 32) << 8 >>> 8 | (int) (word >>> 24) << 24;
+            }
+            p += size;
+            index[hash(px)] = px;
+            if (count > 0)
+                continue;
+            dst[i++] = px;
+        }
+        position = p;
+        previous = px;
+        run = count;
+        return i - from;
+    }
+
+    /**
+     * Decode exactly the pixels in dst[from, to) from the chunks stored in src[position, limit)
+     * @param src (byte[]) - Chunks to decode
+     * @param limit (int) - Index in src right after the last available byte
+     * @param dst (int[]) - Buffer where to store the ARGB packed pixels
+     * @param from (int) - First pixel to decode (inclusive)
+     * @param to (int) - Last pixel to decode (exclusive)
+     * @throws RuntimeException if the chunks end before the last pixel
+     */
+    void decodeFully(byte[] src, int limit, int[] dst, int from, int to){
+        if (decode(src, limit, dst, from, to) != to - from)
+            Helper.fail("Unexpected end of data at index %d", position);
+    }
+
+    /**
+     * Decode exactly the pixels [from, to) of an image stored row after row
+     * @param src (byte[]) - Chunks to decode
+     * @param limit (int) - Index in src right after the last available byte
+     * @param rows (int[][]) - Rows where to store the ARGB packed pixels
+     * @param from (long) - First pixel to decode (inclusive), counted from the start of the image
+     * @param to (long) - Last pixel to decode (exclusive), counted from the start of the image
+     * @throws RuntimeException if the chunks end before the last pixel
+     */
+    void decodeFully(byte[] src, int limit, int[][] rows, long from, long to){
+        var width = rows[0].length;
+        var y = (int) (from / width);
+        var x = (int) (from % width);
+        while (from < to){
+            var n = (int) Math.min(width - x, to - from);
+            decodeFully(src, limit, rows[y], x, x + n);
+            from += n;
+            x = 0;
+            ++y;
+        }
+    }
+
+    /**
+     * Skip exactly count pixels. Only the state is updated, the pixels are not stored.
+     * @param src (byte[]) - Chunks to decode
+     * @param limit (int) - Index in src right after the last available byte
+     * @param count (long) - Number of pixels to skip
+     * @throws RuntimeException if the chunks end before the last pixel
+     */
+    void skipFully(byte[] src, int limit, long count){
+        var scratch = new int[(int) Math.min(count, SKIP_BUFFER_SIZE)];
+        while (count > 0){
+            if (run > 0){
+                var n = Math.min(run, count);
+                run -= n;
+                count -= n;
+                continue;
+            }
+            var n = (int) Math.min(count, scratch.length);
+            decodeFully(src, limit, scratch, 0, n);
+            count -= n;
+        }
+    }
+
+    /**
+     * Make sure the chunks did not describe more pixels than the image
+     * @throws RuntimeException if a run goes past the last pixel
+     */
+    void checkComplete(){
+        if (run > 0)
+            Helper.fail("The data contains more pixels than the image");
+    }
+
+    /**
+     * Number of bytes of the chunk starting with the given byte
+     * @param b1 (int) - First byte of the chunk, as an unsigned value
+     * @return (int) - Size of the chunk, tag included
+     */
+    static int chunkSize(int b1){
+        return OPS[b1] >>> 28;
+    }
+
+    /**
+     * Number of pixels described by the chunk starting with the given byte
+     * @param b1 (int) - First byte of the chunk, as an unsigned value
+     * @return (int) - Length of the run for a "QOI_OP_RUN" chunk, 1 otherwise
+     */
+    static int chunkPixels(int b1){
+        var op = OPS[b1];
+        return ((op >> 24) & 0x0F) == RUN ? op & 0xFF : 1;
+    }
+
+    private static int op(int size, int kind, int payload){
+        return size << 28 | kind << 24 | payload;
+    }
+
+    /**
+     * Pack the difference of every color channel, each one modulo 256
+     */
+    private static int delta(int dr, int dg, int db){
+        return (dr & 0xFF) << 16 | (dg & 0xFF) << 8 | (db & 0xFF);
+    }
+
+    /**
+     * Add packed differences to the color channels of a pixel, each channel wrapping
+     * around on its own. The alpha channel of px is kept, the one of delta is ignored.
+     */
+    private static int add(int px, int delta){
+        return px & 0xFF_00_00_00
+                | ((px & 0x00_FF_00_FF) + (delta & 0x00_FF_00_FF)) & 0x00_FF_00_FF
+                | ((px & 0x00_00_FF_00) + (delta & 0x00_00_FF_00)) & 0x00_00_FF_00;
+    }
+
+}
@@ -1,5 +1,13 @@
 package cs107;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
 /**
  * "Quite Ok Image" Encoder
  * @apiNote Second task of the 2022 Mini Project
@@ -14,6 +22,11 @@ public final class QOIEncoder {
      */
     private QOIEncoder(){}
 
+    /**
+     * Initial value of every entry of the index
+     */
+    private static final byte[] ZERO_PIXEL = new byte[4];
+
     // ==================================================================================
     // ============================ QUITE OK IMAGE HEADER ===============================
     // ==================================================================================
@@ -26,7 +39,42 @@ public final class QOIEncoder {
      * @return (byte[]) - Corresponding "Quite Ok Image" Header
      */
     public static byte[] qoiHeader(Helper.Image image){
-        return Helper.fail("Not Implemented");
+        assert image != null;
+        var data = image.data();
+        var header = new byte[QOISpecification.HEADER_SIZE];
+        writeHeader(header, 0, data[0].length, data.length, image.channels(), image.color_space());
+        return header;
+    }
+
+    /**
+     * Write a "Quite Ok Image" header in the given buffer
+     * @param dst (byte[]) - Buffer where to write the header
+     * @param off (int) - Index in the buffer to start writing from
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels
+     * @param colorSpace (byte) - Color space
+     * @throws AssertionError if the colorspace or the number of channels is corrupted
+     *  or if the buffer is too small
+     * @return (int) - Index in the buffer right after the header
+     */
+    static int writeHeader(byte[] dst, int off, int width, int height, byte channels, byte colorSpace){
+        assert dst != null && off >= 0 && off + QOISpecification.HEADER_SIZE <= dst.length;
+        assert width > 0 && height > 0;
+        assert channels == QOISpecification.RGB || channels == QOISpecification.RGBA;
+        assert colorSpace == QOISpecification.sRGB || colorSpace == QOISpecification.ALL;
+        for (var m : QOISpecification.QOI_MAGIC){
+            dst[off++] = m;
+        }
+        for (var v : new int[]{width, height}){
+            dst[off++] = (byte) (v >>> 24);
+            dst[off++] = (byte) (v >>> 16);
+            dst[off++] = (byte) (v >>> 8);
+            dst[off++] = (byte) v;
+        }
+        dst[off++] = channels;
+        dst[off++] = colorSpace;
+        return off;
     }
 
     // ==================================================================================
@@ -40,7 +88,44 @@ public final class QOIEncoder {
      * @return (byte[]) - Encoding of the pixel using the QOI_OP_RGB schema
      */
     public static byte[] qoiOpRGB(byte[] pixel){
-        return Helper.fail("Not Implemented");
+        var encoding = new byte[4];
+        qoiOpRGB(encoding, 0, pixel);
+        return encoding;
+    }
+
+    /**
+     * Write the given pixel in the buffer using the QOI_OP_RGB schema
+     * @param dst (byte[]) - Buffer where to write the encoding
+     * @param off (int) - Index in the buffer to start writing from
+     * @param pixel (byte[]) - The pixel to encode
+     * @throws AssertionError if the pixel's length is not 4 or the buffer is too small
+     * @return (int) - The number of written bytes
+     */
+    public static int qoiOpRGB(byte[] dst, int off, byte[] pixel){
+        assert pixel != null && pixel.length == 4;
+        assert dst != null && off >= 0 && off + 4 <= dst.length;
+        dst[off] = QOISpecification.QOI_OP_RGB_TAG;
+        dst[off + 1] = pixel[QOISpecification.r];
+        dst[off + 2] = pixel[QOISpecification.g];
+        dst[off + 3] = pixel[QOISpecification.b];
+        return 4;
+    }
+
+    /**
+     * Write the given pixel in the buffer using the QOI_OP_RGB schema
+     * @param dst (byte[]) - Buffer where to write the encoding
+     * @param off (int) - Index in the buffer to start writing from
+     * @param argb (int) - The ARGB packed pixel to encode
+     * @throws AssertionError if the buffer is too small
+     * @return (int) - The number of written bytes
+     */
+    public static int qoiOpRGB(byte[] dst, int off, int argb){
+        assert dst != null && off >= 0 && off + 4 <= dst.length;
+        dst[off] = QOISpecification.QOI_OP_RGB_TAG;
+        dst[off + 1] = (byte) (argb >> 16);
+        dst[off + 2] = (byte) (argb >> 8);
+        dst[off + 3] = (byte) argb;
+        return 4;
     }
 
     /**
@@ -50,7 +135,46 @@ public final class QOIEncoder {
      * @return (byte[]) Encoding of the pixel using the QOI_OP_RGBA schema
      */
     public static byte[] qoiOpRGBA(byte[] pixel){
-        return Helper.fail("Not Implemented");
+        var encoding = new byte[5];
+        qoiOpRGBA(encoding, 0, pixel);
+        return encoding;
+    }
+
+    /**
+     * Write the given pixel in the buffer using the QOI_OP_RGBA schema
+     * @param dst (byte[]) - Buffer where to write the encoding
+     * @param off (int) - Index in the buffer to start writing from
+     * @param pixel (byte[]) - The pixel to encode
+     * @throws AssertionError if the pixel's length is not 4 or the buffer is too small
+     * @return (int) - The number of written bytes
+     */
+    public static int qoiOpRGBA(byte[] dst, int off, byte[] pixel){
+        assert pixel != null && pixel.length == 4;
+        assert dst != null && off >= 0 && off + 5 <= dst.length;
+        dst[off] = QOISpecification.QOI_OP_RGBA_TAG;
+        dst[off + 1] = pixel[QOISpecification.r];
+        dst[off + 2] = pixel[QOISpecification.g];
+        dst[off + 3] = pixel[QOISpecification.b];
+        dst[off + 4] = pixel[QOISpecification.a];
+        return 5;
+    }
+
+    /**
+     * Write the given pixel in the buffer using the QOI_OP_RGBA schema
+     * @param dst (byte[]) - Buffer where to write the encoding
+     * @param off (int) - Index in the buffer to start writing from
+     * @param argb (int) - The ARGB packed pixel to encode
+     * @throws AssertionError if the buffer is too small
+     * @return (int) - The number of written bytes
+     */
+    public static int qoiOpRGBA(byte[] dst, int off, int argb){
+        assert dst != null && off >= 0 && off + 5 <= dst.length;
+        dst[off] = QOISpecification.QOI_OP_RGBA_TAG;
+        dst[off + 1] = (byte) (argb >> 16);
+        dst[off + 2] = (byte) (argb >> 8);
+        dst[off + 3] = (byte) argb;
+        dst[off + 4] = (byte) (argb >>> 24);
+        return 5;
     }
 
     /**
@@ -60,7 +184,25 @@ public final class QOIEncoder {
      * @return (byte[]) - Encoding of the index using the QOI_OP_INDEX schema
      */
     public static byte[] qoiOpIndex(byte index){
-        return Helper.fail("Not Implemented");
+        var encoding = new byte[1];
+        qoiOpIndex(encoding, 0, index);
+        return encoding;
+    }
+
+    /**
+     * Write the index in the buffer using the QOI_OP_INDEX schema
+     * @param dst (byte[]) - Buffer where to write the encoding
+     * @param off (int) - Index in the buffer to start writing from
+     * @param index (byte) - Index of the pixel
+     * @throws AssertionError if the index is outside the range of all possible indices
+     *  or the buffer is too small
+     * @return (int) - The number of written bytes
+     */
+    public static int qoiOpIndex(byte[] dst, int off, byte index){
+        assert index >= 0 && index < 64;
+        assert dst != null && off >= 0 && off < dst.length;
+        dst[off] = (byte) (QOISpecification.QOI_OP_INDEX_TAG | index);
+        return 1;
     }
 
     /**
@@ -71,7 +213,41 @@ public final class QOIEncoder {
      * @return (byte[]) - Encoding of the given difference
      */
     public static byte[] qoiOpDiff(byte[] diff){
-        return Helper.fail("Not Implemented");
+        var encoding = new byte[1];
+        qoiOpDiff(encoding, 0, diff);
+        return encoding;
+    }
+
+    /**
+     * Write the difference between 2 pixels in the buffer using the QOI_OP_DIFF schema
+     * @param dst (byte[]) - Buffer where to write the encoding
+     * @param off (int) - Index in the buffer to start writing from
+     * @param diff (byte[]) - The difference between 2 pixels
+     * @throws AssertionError if diff doesn't respect the constraints, diff's length is not 3
+     *  or the buffer is too small
+     * @return (int) - The number of written bytes
+     */
+    public static int qoiOpDiff(byte[] dst, int off, byte[] diff){
+        assert diff != null && diff.length == 3;
+        return qoiOpDiff(dst, off, diff[QOISpecification.r], diff[QOISpecification.g], diff[QOISpecification.b]);
+    }
+
+    /**
+     * Write the difference between 2 pixels in the buffer using the QOI_OP_DIFF schema
+     * @param dst (byte[]) - Buffer where to write the encoding
+     * @param off (int) - Index in the buffer to start writing from
+     * @param dr (int) - Difference on the red channel
+     * @param dg (int) - Difference on the green channel
+     * @param db (int) - Difference on the blue channel
+     * @throws AssertionError if the difference doesn't respect the constraints
+     *  or the buffer is too small
+     * @return (int) - The number of written bytes
+     */
+    public static int qoiOpDiff(byte[] dst, int off, int dr, int dg, int db){
+        assert fitsDiff(dr, dg, db);
+        assert dst != null && off >= 0 && off < dst.length;
+        dst[off] = (byte) (QOISpecification.QOI_OP_DIFF_TAG | (dr + 2) << 4 | (dg + 2) << 2 | (db + 2));
+        return 1;
     }
 
     /**
@@ -83,7 +259,42 @@ public final class QOIEncoder {
      * @return (byte[]) - Encoding of the given difference
      */
     public static byte[] qoiOpLuma(byte[] diff){
-        return Helper.fail("Not Implemented");
+        var encoding = new byte[2];
+        qoiOpLuma(encoding, 0, diff);
+        return encoding;
+    }
+
+    /**
+     * Write the difference between 2 pixels in the buffer using the QOI_OP_LUMA schema
+     * @param dst (byte[]) - Buffer where to write the encoding
+     * @param off (int) - Index in the buffer to start writing from
+     * @param diff (byte[]) - The difference between 2 pixels
+     * @throws AssertionError if diff doesn't respect the constraints, diff's length is not 3
+     *  or the buffer is too small
+     * @return (int) - The number of written bytes
+     */
+    public static int qoiOpLuma(byte[] dst, int off, byte[] diff){
+        assert diff != null && diff.length == 3;
+        return qoiOpLuma(dst, off, diff[QOISpecification.r], diff[QOISpecification.g], diff[QOISpecification.b]);
+    }
+
+    /**
+     * Write the difference between 2 pixels in the buffer using the QOI_OP_LUMA schema
+     * @param dst (byte[]) - Buffer where to write the encoding
+     * @param off (int) - Index in the buffer to start writing from
+     * @param dr (int) - Difference on the red channel
+     * @param dg (int) - Difference on the green channel
+     * @param db (int) - Difference on the blue channel
+     * @throws AssertionError if the difference doesn't respect the constraints
+     *  or the buffer is too small
+     * @return (int) - The number of written bytes
+     */
+    public static int qoiOpLuma(byte[] dst, int off, int dr, int dg, int db){
+        assert fitsLuma(dr, dg, db);
+        assert dst != null && off >= 0 && off + 2 <= dst.length;
+        dst[off] = (byte) (QOISpecification.QOI_OP_LUMA_TAG | (dg + 32));
+        dst[off + 1] = (byte) ((dr - dg + 8) << 4 | (db - dg + 8));
+        return 2;
     }
 
     /**
@@ -93,7 +304,25 @@ public final class QOIEncoder {
      * @return (byte[]) - Encoding of count
      */
     public static byte[] qoiOpRun(byte count){
-        return Helper.fail("Not Implemented");
+        var encoding = new byte[1];
+        qoiOpRun(encoding, 0, count);
+        return encoding;
+    }
+
+    /**
+     * Write the number of similar pixels in the buffer using the QOI_OP_RUN schema
+     * @param dst (byte[]) - Buffer where to write the encoding
+     * @param off (int) - Index in the buffer to start writing from
+     * @param count (byte) - Number of similar pixels
+     * @throws AssertionError if count is not between 0 (exclusive) and 63 (exclusive)
+     *  or the buffer is too small
+     * @return (int) - The number of written bytes
+     */
+    public static int qoiOpRun(byte[] dst, int off, byte count){
+        assert count > 0 && count <= QOISpecification.QOI_OP_RUN_MAX;
+        assert dst != null && off >= 0 && off < dst.length;
+        dst[off] = (byte) (QOISpecification.QOI_OP_RUN_TAG | (count - 1));
+        return 1;
     }
 
     // ==================================================================================
@@ -107,7 +336,137 @@ public final class QOIEncoder {
      * @return (byte[]) - "Quite Ok Image" representation of the image
      */
     public static byte[] encodeData(byte[][] image){
-        return Helper.fail("Not Implemented");
+        assert image != null;
+        var encoding = new byte[QOIEncoderState.MAX_PIXEL_SIZE * image.length];
+        return Arrays.copyOf(encoding, encodeData(image, encoding, 0));
+    }
+
+    /**
+     * Encode the given image in the buffer using the "Quite Ok Image" Protocol.
+     * Unlike {@link #encodeData(byte[][])}, no memory is allocated per pixel.
+     * @param image (byte[][]) - Formatted image to encode
+     * @param dst (byte[]) - Buffer where to write the encoding, it needs room
+     *  for 5 bytes per pixel in the worst case
+     * @param off (int) - Index in the buffer to start writing from
+     * @throws AssertionError if the image or the buffer is null
+     *  or one of the pixels is invalid
+     * @return (int) - The number of written bytes
+     */
+    public static int encodeData(byte[][] image, byte[] dst, int off){
+        assert image != null && dst != null;
+        var start = off;
+        var index = new byte[64][];
+        Arrays.fill(index, ZERO_PIXEL);
+        var diff = new byte[3];
+        var previous = QOISpecification.START_PIXEL;
+        var run = 0;
+        for (var pixel : image){
+            assert pixel != null && pixel.length == 4;
+            if (Arrays.equals(pixel, previous)){
+                if (++run == QOISpecification.QOI_OP_RUN_MAX){
+                    off += qoiOpRun(dst, off, (byte) run);
+                    run = 0;
+                }
+                continue;
+            }
+            if (run > 0){
+                off += qoiOpRun(dst, off, (byte) run);
+                run = 0;
+            }
+            var hash = QOISpecification.hash(pixel);
+            if (Arrays.equals(index[hash], pixel)){
+                off += qoiOpIndex(dst, off, hash);
+            } else {
+                index[hash] = pixel;
+                if (pixel[QOISpecification.a] != previous[QOISpecification.a]){
+                    off += qoiOpRGBA(dst, off, pixel);
+                } else {
+                    diff[QOISpecification.r] = (byte) (pixel[QOISpecification.r] - previous[QOISpecification.r]);
+                    diff[QOISpecification.g] = (byte) (pixel[QOISpecification.g] - previous[QOISpecification.g]);
+                    diff[QOISpecification.b] = (byte) (pixel[QOISpecification.b] - previous[QOISpecification.b]);
+                    if (fitsDiff(diff[QOISpecification.r], diff[QOISpecification.g], diff[QOISpecification.b]))
+                        off += qoiOpDiff(dst, off, diff);
+                    else if (fitsLuma(diff[QOISpecification.r], diff[QOISpecification.g], diff[QOISpecification.b]))
+                        off += qoiOpLuma(dst, off, diff);
+                    else
+                        off += qoiOpRGB(dst, off, pixel);
+                }
+            }
+            previous = pixel;
+        }
+        if (run > 0){
+            off += qoiOpRun(dst, off, (byte) run);
+        }
+        return off - start;
+    }
+
+    /**
+     * Encode the given image using the "Quite Ok Image" Protocol.
+     * The ARGB packed pixels are read straight from the rows, without
+     * going through {@link ArrayUtils#imageToChannels(int[][])}.
+     * @param image (int[][]) - ARGB packed pixels, one array per row
+     * @return (byte[]) - "Quite Ok Image" representation of the image
+     * @throws AssertionError if the image or one of its rows is null
+     */
+    public static byte[] encodeData(int[][] image){
+        assert image != null;
+        var state = new QOIEncoderState();
+        var output = new ByteArrayOutputStream();
+        var scratch = new byte[0];
+        for (var row : image){
+            assert row != null;
+            if (scratch.length < QOIEncoderState.MAX_PIXEL_SIZE * row.length + 1)
+                scratch = new byte[QOIEncoderState.MAX_PIXEL_SIZE * row.length + 1];
+            output.write(scratch, 0, state.encode(row, 0, row.length, scratch, 0));
+        }
+        scratch = new byte[1];
+        output.write(scratch, 0, state.flush(scratch, 0));
+        return output.toByteArray();
+    }
+
+    /**
+     * Encode the given image in the buffer using the "Quite Ok Image" Protocol.
+     * The ARGB packed pixels are read straight from the rows.
+     * @param image (int[][]) - ARGB packed pixels, one array per row
+     * @param dst (byte[]) - Buffer where to write the encoding, it needs room
+     *  for 5 bytes per pixel in the worst case
+     * @param off (int) - Index in the buffer to start writing from
+     * @throws AssertionError if the image, one of its rows or the buffer is null
+     * @return (int) - The number of written bytes
+     */
+    public static int encodeData(int[][] image, byte[] dst, int off){
+        assert image != null && dst != null;
+        var state = new QOIEncoderState();
+        var start = off;
+        for (var row : image){
+            assert row != null;
+            off = state.encode(row, 0, row.length, dst, off);
+        }
+        return state.flush(dst, off) - start;
+    }
+
+    /**
+     * Check if the difference between 2 pixels can be stored in a QOI_OP_DIFF chunk
+     * @param dr (int) - Difference on the red channel
+     * @param dg (int) - Difference on the green channel
+     * @param db (int) - Difference on the blue channel
+     * @return (boolean) - true if each difference is between -2 and 1
+     */
+    static boolean fitsDiff(int dr, int dg, int db){
+        return dr >= -2 && dr <= 1 && dg >= -2 && dg <= 1 && db >= -2 && db <= 1;
+    }
+
+    /**
+     * Check if the difference between 2 pixels can be stored in a QOI_OP_LUMA chunk
+     * @param dr (int) - Difference on the red channel
+     * @param dg (int) - Difference on the green channel
+     * @param db (int) - Difference on the blue channel
+     * @return (boolean) - true if dg is between -32 and 31 and both dr - dg and db - dg are between -8 and 7
+     */
+    static boolean fitsLuma(int dr, int dg, int db){
+        var drg = dr - dg;
+        var dbg = db - dg;
+        return dg >= -32 && dg <= 31 && drg >= -8 && drg <= 7 && dbg >= -8 && dbg <= 7;
     }
 
     /**
@@ -119,7 +478,84 @@ public final class QOIEncoder {
      * @throws AssertionError if the image is null
      */
     public static byte[] qoiFile(Helper.Image image){
-        return Helper.fail("Not Implemented");
+        assert image != null;
+        var data = image.data();
+        var chunks = encodeData(data);
+        var file = new byte[QOISpecification.HEADER_SIZE + chunks.length + QOISpecification.QOI_EOF.length];
+        var off = writeHeader(file, 0, data[0].length, data.length, image.channels(), image.color_space());
+        System.arraycopy(chunks, 0, file, off, chunks.length);
+        System.arraycopy(QOISpecification.QOI_EOF, 0, file, off + chunks.length, QOISpecification.QOI_EOF.length);
+        return file;
+    }
+
+    /**
+     * Write the "Quite Ok Image" file of the image to the disk with {@link Helper#writeAtomically(Path, boolean, ByteBuffer...)}.
+     * The header, the chunks and the "QOI_EOF" are written with a single gathering write.
+     * @param image (Helper.Image) - Image to encode
+     * @param path (Path) - Path to the file, replaced if it exists
+     * @param force (boolean) - true to flush the file to the storage device before returning
+     * @throws AssertionError if one of the parameters is null
+     * @throws IOException if the file cannot be written
+     */
+    public static void qoiFile(Helper.Image image, Path path, boolean force) throws IOException {
+        assert image != null;
+        var data = image.data();
+        var header = new byte[QOISpecification.HEADER_SIZE];
+        writeHeader(header, 0, data[0].length, data.length, image.channels(), image.color_space());
+        Helper.writeAtomically(path, force,
+                ByteBuffer.wrap(header),
+                ByteBuffer.wrap(encodeData(data)),
+                ByteBuffer.wrap(QOISpecification.QOI_EOF).asReadOnlyBuffer());
+    }
+
+    /**
+     * Worst case size of a "Quite Ok Image" file : the header, 5 bytes per pixel and the "QOI_EOF".
+     * The bound does not depend on the channels since the alpha of the pixels is always encoded.
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels
+     * @return (long) - Maximum number of bytes of the file
+     * @throws AssertionError if the size or the number of channels is corrupted
+     */
+    public static long maxEncodedSize(int width, int height, byte channels){
+        assert width > 0 && height > 0;
+        assert channels == QOISpecification.RGB || channels == QOISpecification.RGBA;
+        return QOISpecification.HEADER_SIZE
+                + (long) QOIEncoderState.MAX_PIXEL_SIZE * width * height
+                + QOISpecification.QOI_EOF.length;
+    }
+
+    /**
+     * Write the "Quite Ok Image" file of the image in the buffer, starting at its position.
+     * Heap and direct buffers are supported ; on success the position is moved after the "QOI_EOF".
+     * @apiNote A buffer with {@link #maxEncodedSize(int, int, byte)} remaining bytes is always large enough
+     * @param image (Helper.Image) - Image to encode
+     * @param dst (ByteBuffer) - Buffer where to write the file
+     * @return (int) - The number of written bytes
+     * @throws AssertionError if one of the parameters is null
+     * @throws BufferOverflowException if the file does not fit in the buffer, the position is then left unchanged
+     * @throws ReadOnlyBufferException if the buffer is read-only
+     */
+    public static int qoiFile(Helper.Image image, ByteBuffer dst){
+        assert image != null && dst != null;
+        var data = image.data();
+        var start = dst.position();
+        if (dst.hasArray() && dst.remaining() >= maxEncodedSize(data[0].length, data.length, image.channels())){
+            var array = dst.array();
+            var off = writeHeader(array, dst.arrayOffset() + start, data[0].length, data.length, image.channels(), image.color_space());
+            off += encodeData(data, array, off);
+            System.arraycopy(QOISpecification.QOI_EOF, 0, array, off, QOISpecification.QOI_EOF.length);
+            off += QOISpecification.QOI_EOF.length;
+            dst.position(off - dst.arrayOffset());
+            return dst.position() - start;
+        }
+        try {
+            QOIStreamEncoder.encode(image, dst);
+        } catch (BufferOverflowException e){
+            dst.position(start);
+            throw e;
+        }
+        return dst.position() - start;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,326 @@
+package cs107;
+
+import java.util.Arrays;
+
+import static cs107.QOISpecification.*;
+
+/**
+ * State of a "Quite Ok Image" encoder working on ARGB packed pixels.
+ * Holds the previous pixel, the 64 entries index and the pending run so that
+ * an image can be encoded piece by piece in a caller supplied buffer.
+ * The pixels are encoded one at a time, unless the vector backend is selected
+ * with {@link #BACKEND_PROPERTY} (see {@link Classifier}).
+ * @since 1.3
+ */
+final class QOIEncoderState {
+
+    /**
+     * Worst case number of bytes produced for one pixel (a "QOI_OP_RGBA" chunk).
+     * One more byte may be needed to close a pending run.
+     */
+    static final int MAX_PIXEL_SIZE = 5;
+
+    /**
+     * "QOI_OP_RUN" chunk of {@link QOISpecification#QOI_OP_RUN_MAX} pixels
+     */
+    private static final byte FULL_RUN = (byte) (QOI_OP_RUN_TAG | (QOI_OP_RUN_MAX - 1));
+
+    /**
+     * Name of the system property selecting the encoding backend : "scalar" (default) or "vector".
+     * The vector backend needs the classes of the folder "vector" and the module jdk.incubator.vector
+     * ({@code --add-modules jdk.incubator.vector}), the scalar backend is used if one of them is missing.
+     */
+    static final String BACKEND_PROPERTY = "cs107.qoi.encoder";
+
+    /**
+     * Name of the {@link Classifier} using the Vector API, compiled separately
+     */
+    private static final String VECTOR_CLASSIFIER = "cs107.QOIVectorClassifier";
+
+    /**
+     * Classifier of the backend selected by {@link #BACKEND_PROPERTY}, null for the scalar backend
+     */
+    private static final Classifier BACKEND = "vector".equals(System.getProperty(BACKEND_PROPERTY)) ? vectorClassifier() : null;
+
+    /**
+     * Number of pixels classified at once by the vector backend
+     */
+    static final int BATCH_SIZE = 256;
+
+    // Kinds of chunks computed by a Classifier, stored in the upper bits of a code
+    static final int SAME = 0;
+    static final int DIFF = 1 << 24;
+    static final int LUMA = 2 << 24;
+    static final int RGB = 3 << 24;
+    static final int RGBA = 4 << 24;
+    private static final int KIND = 0xFF_00_00_00;
+
+    int previous = START_PIXEL_ARGB;
+
+    int run = 0;
+
+    final int[] index = new int[64];
+
+    private final Classifier classifier;
+    private int[] hashes;
+    private int[] codes;
+
+    /**
+     * Create a new state encoding with the backend selected by {@link #BACKEND_PROPERTY}
+     */
+    QOIEncoderState(){
+        this(BACKEND);
+    }
+
+    /**
+     * Create a new state encoding with the given classifier
+     * @param classifier (Classifier) - Classifier of the pixels, null to encode one pixel at a time
+     */
+    QOIEncoderState(Classifier classifier){
+        this.classifier = classifier;
+    }
+
+    /**
+     * Restore the initial state, to reuse this object for another image
+     */
+    void reset(){
+        previous = START_PIXEL_ARGB;
+        run = 0;
+        Arrays.fill(index, 0);
+    }
+
+    // ==================================================================================
+    // ================================ ENCODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Encode the pixels in [from, to) in the given buffer.
+     * Every backend produces the same bytes.
+     * @apiNote The buffer must have room for MAX_PIXEL_SIZE * (to - from) + 1 bytes
+     * @param pixels (int[]) - ARGB packed pixels
+     * @param from (int) - First pixel to encode (inclusive)
+     * @param to (int) - Last pixel to encode (exclusive)
+     * @param dst (byte[]) - Buffer where to write the chunks
+     * @param off (int) - Index in the buffer to start writing from
+     * @return (int) - Index in the buffer right after the last written chunk
+     */
+    int encode(int[] pixels, int from, int to, byte[] dst, int off){
+        return classifier == null ? encodeScalar(pixels, from, to, dst, off) : encodeBatched(pixels, from, to, dst, off);
+    }
+
+    /**
+     * Encode the pixels one at a time, see {@link #encode(int[], int, int, byte[], int)}
+     */
+    private int encodeScalar(int[] pixels, int from, int to, byte[] dst, int off){
+        var prev = previous;
+        var count = run;
+        for (var i = from; i < to; ++i){
+            var px = pixels[i];
+            if (px == prev){
+                var end = runEnd(pixels, i, to);
+                count += end - i;
+                if (count >= QOI_OP_RUN_MAX){
+                    var full = count / QOI_OP_RUN_MAX;
+                    Arrays.fill(dst, off, off + full, FULL_RUN);
+                    off += full;
+                    count -= full * QOI_OP_RUN_MAX;
+                }
+                i = end - 1;
+                continue;
+            }
+            if (count > 0){
+                off += QOIEncoder.qoiOpRun(dst, off, (byte) count);
+                count = 0;
+            }
+            var h = hash(px);
+            if (index[h] == px){
+                off += QOIEncoder.qoiOpIndex(dst, off, (byte) h);
+            } else {
+                index[h] = px;
+                off = encodeDifference(prev, px, dst, off);
+            }
+            prev = px;
+        }
+        previous = prev;
+        run = count;
+        return off;
+    }
+
+    /**
+     * Encode the pixels by batches of {@link #BATCH_SIZE}, see {@link #encode(int[], int, int, byte[], int)}.
+     * The classifier first computes the hash of every pixel of a batch and the chunk it needs
+     * if it is not found in the index : this part has no dependency on the index or the run.
+     * A second loop then walks the batch in order and only keeps the sequential part,
+     * runs and index lookups.
+     */
+    private int encodeBatched(int[] pixels, int from, int to, byte[] dst, int off){
+        if (hashes == null){
+            hashes = new int[BATCH_SIZE];
+            codes = new int[BATCH_SIZE];
+        }
+        var count = run;
+        while (from < to){
+            // A run reaching the batch is skipped like in the scalar backend, without classifying it
+            if (pixels[from] == previous){
+                var end = runEnd(pixels, from, to);
+                count += end - from;
+                if (count >= QOI_OP_RUN_MAX){
+                    var full = count / QOI_OP_RUN_MAX;
+                    Arrays.fill(dst, off, off + full, FULL_RUN);
+                    off += full;
+                    count -= full * QOI_OP_RUN_MAX;
+                }
+                from = end;
+                continue;
+            }
+            var n = Math.min(BATCH_SIZE, to - from);
+            classifier.classify(pixels, from, n, previous, hashes, codes);
+            for (var i = 0; i < n; ++i){
+                var code = codes[i];
+                if (code == SAME){
+                    if (++count == QOI_OP_RUN_MAX){
+                        dst[off++] = FULL_RUN;
+                        count = 0;
+                    }
+                    continue;
+                }
+                if (count > 0){
+                    off += QOIEncoder.qoiOpRun(dst, off, (byte) count);
+                    count = 0;
+                }
+                var px = pixels[from + i];
+                var h = hashes[i];
+                if (index[h] == px){
+                    off += QOIEncoder.qoiOpIndex(dst, off, (byte) h);
+                    continue;
+                }
+                index[h] = px;
+                switch (code & KIND){
+                    case DIFF -> dst[off++] = (byte) code;
+                    case LUMA -> {
+                        dst[off++] = (byte) (code >> 8);
+                        dst[off++] = (byte) code;
+                    }
+                    case RGB -> off += QOIEncoder.qoiOpRGB(dst, off, px);
+                    default -> off += QOIEncoder.qoiOpRGBA(dst, off, px);
+                }
+            }
+            previous = pixels[from + n - 1];
+            from += n;
+        }
+        run = count;
+        return off;
+    }
+
+    /**
+     * Find the end of the run of pixels equal to pixels[from].
+     * The comparison of the shifted ranges is done by Arrays::mismatch, which
+     * compares several pixels at a time instead of one pixel after the other.
+     * @return (int) - Index of the first pixel different from pixels[from], or to
+     */
+    private static int runEnd(int[] pixels, int from, int to){
+        var k = Arrays.mismatch(pixels, from, to - 1, pixels, from + 1, to);
+        return k < 0 ? to : from + k + 1;
+    }
+
+    /**
+     * Write the pending run (if any) in the given buffer
+     * @param dst (byte[]) - Buffer where to write the chunk
+     * @param off (int) - Index in the buffer to start writing from
+     * @return (int) - Index in the buffer right after the written chunk
+     */
+    int flush(byte[] dst, int off){
+        if (run > 0){
+            off += QOIEncoder.qoiOpRun(dst, off, (byte) run);
+            run = 0;
+        }
+        return off;
+    }
+
+    // ==================================================================================
+    // ================================ CLASSIFICATION ==================================
+    // ==================================================================================
+
+    /**
+     * Data-parallel part of the batched encoder. For every pixel, it gives its hash and a code
+     * made of the kind of chunk it needs against the pixel before it if it is not found in the index
+     * ({@link #SAME}, {@link #DIFF}, {@link #LUMA}, {@link #RGB} or {@link #RGBA}, in the upper 8 bits)
+     * and, for "QOI_OP_DIFF" and "QOI_OP_LUMA", the bytes of the chunk (in the lower 16 bits).
+     */
+    @FunctionalInterface
+    interface Classifier {
+
+        /**
+         * Classify the pixels [from, from + n)
+         * @param pixels (int[]) - ARGB packed pixels
+         * @param from (int) - First pixel to classify
+         * @param n (int) - Number of pixels to classify, at most {@link #BATCH_SIZE}
+         * @param prev (int) - The pixel before pixels[from]
+         * @param hashes (int[]) - Buffer where to store the hash of pixels[from + i] at i
+         * @param codes (int[]) - Buffer where to store the code of pixels[from + i] at i
+         */
+        void classify(int[] pixels, int from, int n, int prev, int[] hashes, int[] codes);
+
+    }
+
+    /**
+     * Classify the pixels one at a time, see {@link Classifier#classify(int[], int, int, int, int[], int[])}
+     */
+    static void classify(int[] pixels, int from, int n, int prev, int[] hashes, int[] codes){
+        for (var i = 0; i < n; ++i){
+            var px = pixels[from + i];
+            hashes[i] = hash(px);
+            codes[i] = code(prev, px);
+            prev = px;
+        }
+    }
+
+    /**
+     * Code of px when encoded after prev, see {@link Classifier}
+     */
+    static int code(int prev, int px){
+        if (px == prev)
+            return SAME;
+        if (((px ^ prev) >>> 24) != 0)
+            return RGBA;
+        int dr = (byte) ((px >> 16) - (prev >> 16));
+        int dg = (byte) ((px >> 8) - (prev >> 8));
+        int db = (byte) (px - prev);
+        if ((((dr + 2) | (dg + 2) | (db + 2)) >>> 2) == 0)
+            return DIFF | QOI_OP_DIFF_TAG | (dr + 2) << 4 | (dg + 2) << 2 | (db + 2);
+        var drg = dr - dg + 8;
+        var dbg = db - dg + 8;
+        if ((((dg + 32) >>> 6) | (drg >>> 4) | (dbg >>> 4)) == 0)
+            return LUMA | (QOI_OP_LUMA_TAG & 0xFF | (dg + 32)) << 8 | drg << 4 | dbg;
+        return RGB;
+    }
+
+    /**
+     * Load the classifier using the Vector API
+     * @return (Classifier) - The classifier, null if its class or the module jdk.incubator.vector is missing
+     */
+    static Classifier vectorClassifier(){
+        try {
+            return (Classifier) Class.forName(VECTOR_CLASSIFIER).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e){
+            return null;
+        }
+    }
+
+    /**
+     * Encode a pixel which is neither a run nor in the index
+     */
+    private static int encodeDifference(int prev, int px, byte[] dst, int off){
+        if (((px ^ prev) >>> 24) != 0)
+            return off + QOIEncoder.qoiOpRGBA(dst, off, px);
+        int dr = (byte) ((px >> 16) - (prev >> 16));
+        int dg = (byte) ((px >> 8) - (prev >> 8));
+        int db = (byte) (px - prev);
+        if (QOIEncoder.fitsDiff(dr, dg, db))
+            return off + QOIEncoder.qoiOpDiff(dst, off, dr, dg, db);
+        if (QOIEncoder.fitsLuma(dr, dg, db))
+            return off + QOIEncoder.qoiOpLuma(dst, off, dr, dg, db);
+        return off + QOIEncoder.qoiOpRGB(dst, off, px);
+    }
+
+}
@@ -0,0 +1,239 @@
+package cs107;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.stream.IntStream;
+
+/**
+ * 64 bits content fingerprints of images and of "Quite Ok Image" files, based on XXH64.
+ * Two images with the same size, channels, color space and pixels have the same fingerprint,
+ * and two files with the same bytes have the same fingerprint. The fingerprint of a file is the
+ * XXH64 (seed 0) of its bytes : it identifies the file without decoding it, but differs from
+ * the fingerprint of the decoded image.
+ * @since 1.3
+ */
+public final class QOIFingerprint {
+
+    /**
+     * Number of pixels from which the rows of an image are hashed in parallel
+     */
+    public static final int PARALLEL_THRESHOLD = 1 << 20;
+
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INTS = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    // Only static methods
+    private QOIFingerprint(){}
+
+    // ==================================================================================
+    // ============================== FINGERPRINT METHODS ===============================
+    // ==================================================================================
+
+    /**
+     * Compute the fingerprint of an image. Every row is hashed on its own, in parallel
+     * for images of at least {@link #PARALLEL_THRESHOLD} pixels, then the row hashes are combined.
+     * @apiNote Prefer a {@link Key} to look an image up more than once, it computes the fingerprint only once
+     * @param image (Helper.Image) - Image to fingerprint
+     * @return (long) - Fingerprint of the image
+     * @throws AssertionError if the image is null
+     */
+    public static long of(Helper.Image image){
+        assert image != null;
+        var data = image.data();
+        var rows = new long[data.length];
+        if ((long) data.length * data[0].length >= PARALLEL_THRESHOLD){
+            IntStream.range(0, data.length).parallel().forEach(y -> rows[y] = hash(data[y]));
+        } else {
+            for (var y = 0; y < data.length; ++y){
+                rows[y] = hash(data[y]);
+            }
+        }
+        var h = P5 + ((long) data[0].length << 32 | data.length) + ((image.channels() & 0xFF) << 8 | (image.color_space() & 0xFF));
+        for (var row : rows){
+            h ^= round(0, row);
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+        }
+        return avalanche(h);
+    }
+
+    /**
+     * Compute the fingerprint of a file, without decoding it
+     * @param content (byte[]) - Content of the file
+     * @return (long) - XXH64 of the content
+     * @throws AssertionError if content is null
+     */
+    public static long of(byte[] content){
+        assert content != null;
+        return hash(content, 0, content.length);
+    }
+
+    /**
+     * Create the key of an image, for hash based collections.
+     * The pixels are copied : changing the image afterwards does not change its key.
+     * @param image (Helper.Image) - Image to wrap
+     * @return (Key) - Key of the image
+     * @throws AssertionError if the image is null
+     */
+    public static Key key(Helper.Image image){
+        assert image != null;
+        var data = image.data().clone();
+        for (var y = 0; y < data.length; ++y){
+            data[y] = data[y].clone();
+        }
+        var copy = new Helper.Image(data, image.channels(), image.color_space());
+        return new Key(copy, of(copy));
+    }
+
+    /**
+     * Immutable key of an image. It holds a private copy of the pixels and its fingerprint,
+     * computed once : equal keys are found by comparing the fingerprints first.
+     */
+    public static final class Key {
+
+        private final Helper.Image image;
+        private final long fingerprint;
+
+        private Key(Helper.Image image, long fingerprint){
+            this.image = image;
+            this.fingerprint = fingerprint;
+        }
+
+        /**
+         * @return (long) - Fingerprint of the image, see {@link QOIFingerprint#of(Helper.Image)}
+         */
+        public long fingerprint(){
+            return fingerprint;
+        }
+
+        @Override
+        public boolean equals(Object obj){
+            return obj instanceof Key key && fingerprint == key.fingerprint && image.equals(key.image);
+        }
+
+        @Override
+        public int hashCode(){
+            return Long.hashCode(fingerprint);
+        }
+    }
+
+    // ==================================================================================
+    // ================================= XXH64 METHODS ==================================
+    // ==================================================================================
+
+    /**
+     * XXH64 (seed 0) of the little-endian bytes of the given pixels
+     * @param row (int[]) - ARGB packed pixels
+     * @return (long) - Hash of the pixels
+     */
+    static long hash(int[] row){
+        var n = row.length;
+        var i = 0;
+        long h;
+        if (n >= 8){
+            long v1 = P1 + P2, v2 = P2, v3 = 0, v4 = -P1;
+            for (; i <= n - 8; i += 8){
+                v1 = round(v1, lane(row, i));
+                v2 = round(v2, lane(row, i + 2));
+                v3 = round(v3, lane(row, i + 4));
+                v4 = round(v4, lane(row, i + 6));
+            }
+            h = converge(v1, v2, v3, v4);
+        } else {
+            h = P5;
+        }
+        h += (long) n * Integer.BYTES;
+        for (; i <= n - 2; i += 2){
+            h ^= round(0, lane(row, i));
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+        }
+        if (i < n){
+            h ^= (row[i] & 0xFFFF_FFFFL) * P1;
+            h = Long.rotateLeft(h, 23) * P2 + P3;
+        }
+        return avalanche(h);
+    }
+
+    /**
+     * XXH64 (seed 0) of the bytes in [from, to)
+     * @param bytes (byte[]) - Bytes to hash
+     * @param from (int) - First byte to hash (inclusive)
+     * @param to (int) - Last byte to hash (exclusive)
+     * @return (long) - Hash of the bytes
+     */
+    static long hash(byte[] bytes, int from, int to){
+        return hash(bytes, from, to, 0);
+    }
+
+    /**
+     * XXH64 of the bytes in [from, to). Two different seeds give two independent hashes of the same bytes.
+     * @param bytes (byte[]) - Bytes to hash
+     * @param from (int) - First byte to hash (inclusive)
+     * @param to (int) - Last byte to hash (exclusive)
+     * @param seed (long) - Seed of the hash
+     * @return (long) - Hash of the bytes
+     */
+    static long hash(byte[] bytes, int from, int to, long seed){
+        var i = from;
+        long h;
+        if (to - from >= 32){
+            long v1 = seed + P1 + P2, v2 = seed + P2, v3 = seed, v4 = seed - P1;
+            for (; i <= to - 32; i += 32){
+                v1 = round(v1, (long) LONGS.get(bytes, i));
+                v2 = round(v2, (long) LONGS.get(bytes, i + 8));
+                v3 = round(v3, (long) LONGS.get(bytes, i + 16));
+                v4 = round(v4, (long) LONGS.get(bytes, i + 24));
+            }
+            h = converge(v1, v2, v3, v4);
+        } else {
+            h = seed + P5;
+        }
+        h += to - from;
+        for (; i <= to - 8; i += 8){
+            h ^= round(0, (long) LONGS.get(bytes, i));
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+        }
+        if (i <= to - 4){
+            h ^= ((int) INTS.get(bytes, i) & 0xFFFF_FFFFL) * P1;
+            h = Long.rotateLeft(h, 23) * P2 + P3;
+            i += 4;
+        }
+        for (; i < to; ++i){
+            h ^= (bytes[i] & 0xFF) * P5;
+            h = Long.rotateLeft(h, 11) * P1;
+        }
+        return avalanche(h);
+    }
+
+    private static long lane(int[] row, int i){
+        return (row[i] & 0xFFFF_FFFFL) | (long) row[i + 1] << 32;
+    }
+
+    private static long round(long acc, long input){
+        return Long.rotateLeft(acc + input * P2, 31) * P1;
+    }
+
+    private static long converge(long v1, long v2, long v3, long v4){
+        var h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+        h = (h ^ round(0, v1)) * P1 + P4;
+        h = (h ^ round(0, v2)) * P1 + P4;
+        h = (h ^ round(0, v3)) * P1 + P4;
+        return (h ^ round(0, v4)) * P1 + P4;
+    }
+
+    private static long avalanche(long h){
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+}
@@ -0,0 +1,286 @@
+package cs107;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache of decoded "Quite Ok Image" files, bounded by the size of the decoded pixels.
+ * An entry is identified either by the path of the file, and stays valid as long as the
+ * modification time and the size of the file do not change, or by the content fingerprint
+ * of the file (see {@link QOIFingerprint#of(byte[])}) when the caller already holds its bytes.
+ * Lookups do not wait for a lock : the entries live in a {@link ConcurrentHashMap}, and a hit
+ * only moves its entry to the end of the recency order if the lock of that order is free.
+ * When the cache is full, the least recently used entries are evicted from the start of the order,
+ * without scanning the cache. Concurrent misses on the same file only decode it once.
+ * @since 1.3
+ */
+public final class QOIImageCache {
+
+    /**
+     * Counters of a cache
+     * @param hits (long) - Number of lookups answered by the cache, including the ones waiting for a pending decode
+     * @param misses (long) - Number of lookups which decoded the file
+     * @param evictions (long) - Number of entries evicted to respect the capacity
+     * @param entries (int) - Number of entries in the cache
+     * @param weight (long) - Size of the decoded pixels in the cache, in bytes
+     */
+    public record Stats(long hits, long misses, long evictions, int entries, long weight) {}
+
+    /**
+     * Seed of the second hash of a content, see {@link #get(byte[])}
+     */
+    private static final long CHECK_SEED = 0x9E37_79B9_7F4A_7C15L;
+
+    private final long capacity;
+    private final ConcurrentHashMap<Object, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong weight = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Decoded entries, from the least to the most recently used, mapped to their key.
+     * Guarded by {@link #lock}, as well as the weight and the removal of every entry.
+     */
+    private final LinkedHashMap<Entry, Object> order = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Create a new empty cache
+     * @param capacity (long) - Maximum size of the decoded pixels kept in the cache, in bytes
+     * @throws AssertionError if the capacity is negative
+     */
+    public QOIImageCache(long capacity){
+        assert capacity >= 0;
+        this.capacity = capacity;
+    }
+
+    // ==================================================================================
+    // ================================= LOOKUP METHODS =================================
+    // ==================================================================================
+
+    /**
+     * Get the decoded image of a file, decoding it if it is not in the cache or if it changed
+     * @apiNote The same image is returned to every caller, it must not be modified
+     * @param file (Path) - "Quite Ok Image" file
+     * @return (Helper.Image) - Decoded image
+     * @throws AssertionError if file is null
+     * @throws RuntimeException if the file is corrupted
+     * @throws IOException if the file cannot be read
+     */
+    public Helper.Image get(Path file) throws IOException {
+        assert file != null;
+        var path = file.toAbsolutePath().normalize();
+        var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        return get(path, new Entry(attributes.lastModifiedTime(), attributes.size()), () -> QOIDecoder.decodeQoiFile(path));
+    }
+
+    /**
+     * Get the decoded image of the content of a file, decoding it if its fingerprint is not in the cache.
+     * The key also holds the length of the content and a second independent hash of it,
+     * so that two different contents are not confused when their fingerprints collide.
+     * @apiNote The same image is returned to every caller, it must not be modified
+     * @param content (byte[]) - Content of a "Quite Ok Image" file
+     * @return (Helper.Image) - Decoded image
+     * @throws AssertionError if content is null
+     * @throws RuntimeException if the content is corrupted
+     */
+    public Helper.Image get(byte[] content){
+        assert content != null;
+        try {
+            var key = new ContentKey(QOIFingerprint.of(content), QOIFingerprint.hash(content, 0, content.length, CHECK_SEED), content.length);
+            return get(key, new Entry(null, content.length),
+                    () -> QOIReusableDecoder.current().decodeQoiFile(content));
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Helper.Image get(Object key, Entry fresh, Loader loader) throws IOException {
+        while (true){
+            var entry = entries.get(key);
+            if (entry != null && entry.matches(fresh)){
+                hits.increment();
+                touch(entry);
+                return entry.await();
+            }
+            var won = entry == null ? entries.putIfAbsent(key, fresh) == null : entries.replace(key, entry, fresh);
+            if (won){
+                if (entry != null)
+                    discard(entry);
+                misses.increment();
+                return load(key, fresh, loader);
+            }
+        }
+    }
+
+    private Helper.Image load(Object key, Entry entry, Loader loader) throws IOException {
+        Helper.Image image;
+        try {
+            image = loader.load();
+        } catch (IOException | RuntimeException | Error e){
+            entries.remove(key, entry);
+            discard(entry);
+            entry.image.completeExceptionally(e);
+            throw e;
+        }
+        entry.image.complete(image);
+        account(key, entry, (long) image.data().length * image.data()[0].length * Integer.BYTES);
+        return image;
+    }
+
+    /**
+     * Remove the entry of a file, if any
+     * @param file (Path) - "Quite Ok Image" file
+     * @throws AssertionError if file is null
+     */
+    public void invalidate(Path file){
+        assert file != null;
+        var entry = entries.remove(file.toAbsolutePath().normalize());
+        if (entry != null)
+            discard(entry);
+    }
+
+    /**
+     * Remove all the entries. The counters are kept.
+     */
+    public void clear(){
+        for (var path : entries.keySet()){
+            var entry = entries.remove(path);
+            if (entry != null)
+                discard(entry);
+        }
+    }
+
+    /**
+     * @return (Stats) - The current counters of the cache
+     */
+    public Stats stats(){
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), entries.size(), weight.get());
+    }
+
+    // ==================================================================================
+    // ================================ EVICTION METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Mark a decoded entry as the most recently used. The hit is not recorded if another
+     * thread holds the lock : lookups never wait, at the price of an approximate order.
+     */
+    private void touch(Entry entry){
+        if (!lock.tryLock())
+            return;
+        try {
+            order.get(entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Add a decoded entry to the order with its weight, unless it was already removed from the cache,
+     * then evict the least recently used entries until the cache fits its capacity
+     */
+    private void account(Object key, Entry entry, long size){
+        lock.lock();
+        try {
+            if (entry.removed)
+                return;
+            entry.weight = size;
+            weight.addAndGet(size);
+            order.put(entry, key);
+            var eldest = order.entrySet().iterator();
+            while (weight.get() > capacity){
+                var e = eldest.next();
+                eldest.remove();
+                if (entries.remove(e.getValue(), e.getKey()))
+                    evictions.increment();
+                release(e.getKey());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Subtract the weight of an entry removed from the cache
+     */
+    private void discard(Entry entry){
+        lock.lock();
+        try {
+            order.remove(entry);
+            release(entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Subtract the weight of an entry once, the lock being held
+     */
+    private void release(Entry entry){
+        if (!entry.removed){
+            entry.removed = true;
+            weight.addAndGet(-entry.weight);
+        }
+    }
+
+    /**
+     * Key of an entry identified by the content of a file
+     */
+    private record ContentKey(long fingerprint, long check, int length) {}
+
+    /**
+     * Decoder of a missing entry
+     */
+    private interface Loader {
+        Helper.Image load() throws IOException;
+    }
+
+    /**
+     * Decoded image of a given version of a file, possibly still being decoded
+     */
+    private static final class Entry {
+
+        private final FileTime modified; // null for an entry identified by its content
+        private final long size;
+        private final CompletableFuture<Helper.Image> image = new CompletableFuture<>();
+        private long weight;
+        private boolean removed;
+
+        private Entry(FileTime modified, long size){
+            this.modified = modified;
+            this.size = size;
+        }
+
+        private boolean matches(Entry other){
+            return size == other.size && Objects.equals(modified, other.modified);
+        }
+
+        private Helper.Image await() throws IOException {
+            try {
+                return image.join();
+            } catch (CompletionException e){
+                if (e.getCause() instanceof IOException cause)
+                    throw new IOException(cause.getMessage(), cause);
+                if (e.getCause() instanceof RuntimeException cause)
+                    throw cause;
+                throw e;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,265 @@
+package cs107;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Image stored outside of the Java heap, for images larger than what an {@code int[][]} can hold.
+ * The ARGB packed pixels are stored row after row (4 bytes per pixel, alpha first) in direct
+ * or memory-mapped buffers of at most {@link #MAX_CHUNK_SIZE} bytes, each one holding whole rows.
+ * Use {@link QOIStreamEncoder#encode(QOIOffHeapImage, java.nio.channels.WritableByteChannel)}
+ * and {@link QOIStreamDecoder#decodeOffHeap(java.nio.channels.ReadableByteChannel)} to encode and decode it.
+ * @apiNote The memory of the direct buffers and of the mappings is freed only by the garbage collector,
+ *  once the image and its buffers are unreachable. Nothing frees it earlier, {@link #close()} included.
+ * @since 1.3
+ */
+public final class QOIOffHeapImage {
+
+    /**
+     * Maximum size of one buffer in bytes
+     */
+    public static final int MAX_CHUNK_SIZE = 1 << 30;
+
+    private final int width;
+    private final int height;
+    private final byte channels;
+    private final byte colorSpace;
+    private final int rowsPerChunk;
+    private final boolean mapped;
+
+    private ByteBuffer[] chunks;
+    private IntBuffer[] views;
+
+    private QOIOffHeapImage(int width, int height, byte channels, byte colorSpace, ByteBuffer[] chunks, boolean mapped){
+        this.width = width;
+        this.height = height;
+        this.channels = channels;
+        this.colorSpace = colorSpace;
+        this.rowsPerChunk = rowsPerChunk(width);
+        this.mapped = mapped;
+        this.chunks = chunks;
+        views = new IntBuffer[chunks.length];
+        for (var k = 0; k < chunks.length; ++k){
+            views[k] = chunks[k].asIntBuffer();
+        }
+    }
+
+    // ==================================================================================
+    // ================================== ALLOCATION ====================================
+    // ==================================================================================
+
+    /**
+     * Allocate a new image in direct buffers. Every pixel is 0 (transparent black).
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels
+     * @param colorSpace (byte) - Color space
+     * @return (QOIOffHeapImage) - The allocated image
+     * @throws AssertionError if one of the parameters is corrupted
+     */
+    public static QOIOffHeapImage allocate(int width, int height, byte channels, byte colorSpace){
+        checkHeader(width, height, channels, colorSpace);
+        var rows = rowsPerChunk(width);
+        var chunks = new ByteBuffer[(height + rows - 1) / rows];
+        for (var k = 0; k < chunks.length; ++k){
+            chunks[k] = ByteBuffer.allocateDirect(chunkSize(width, height, rows, k));
+        }
+        return new QOIOffHeapImage(width, height, channels, colorSpace, chunks, false);
+    }
+
+    /**
+     * Map an image to a file holding its raw pixels, row after row.
+     * The file is created if needed and extended to the size of the image.
+     * @param file (Path) - File backing the pixels
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels
+     * @param colorSpace (byte) - Color space
+     * @return (QOIOffHeapImage) - The mapped image
+     * @throws AssertionError if one of the parameters is corrupted
+     * @throws IOException if the file cannot be mapped
+     */
+    public static QOIOffHeapImage map(Path file, int width, int height, byte channels, byte colorSpace) throws IOException {
+        assert file != null;
+        checkHeader(width, height, channels, colorSpace);
+        var rows = rowsPerChunk(width);
+        var chunks = new ByteBuffer[(height + rows - 1) / rows];
+        try (var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+            var position = 0L;
+            for (var k = 0; k < chunks.length; ++k){
+                var size = chunkSize(width, height, rows, k);
+                chunks[k] = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+                position += size;
+            }
+        }
+        return new QOIOffHeapImage(width, height, channels, colorSpace, chunks, true);
+    }
+
+    /**
+     * Copy an image to a new off-heap image
+     * @param image (Helper.Image) - Image to copy
+     * @return (QOIOffHeapImage) - The copy
+     * @throws AssertionError if the image is null
+     */
+    public static QOIOffHeapImage copyOf(Helper.Image image){
+        assert image != null;
+        var data = image.data();
+        var copy = allocate(data[0].length, data.length, image.channels(), image.color_space());
+        for (var y = 0; y < data.length; ++y){
+            copy.setRow(y, data[y]);
+        }
+        return copy;
+    }
+
+    /**
+     * Copy the image to the heap
+     * @return (Helper.Image) - The copy
+     * @throws AssertionError if the image is closed
+     * @throws RuntimeException if the image does not fit in an int[][]
+     */
+    public Helper.Image toImage(){
+        if ((long) width * height > Integer.MAX_VALUE - 8)
+            return Helper.fail("The image is too large for the heap : %d x %d", width, height);
+        var data = new int[height][width];
+        for (var y = 0; y < height; ++y){
+            getRow(y, data[y]);
+        }
+        return Helper.generateImage(data, channels, colorSpace);
+    }
+
+    // ==================================================================================
+    // ================================== PIXEL ACCESS ==================================
+    // ==================================================================================
+
+    /**
+     * @return (int) - Width of the image
+     */
+    public int width(){
+        return width;
+    }
+
+    /**
+     * @return (int) - Height of the image
+     */
+    public int height(){
+        return height;
+    }
+
+    /**
+     * @return (byte) - Number of channels of the image
+     */
+    public byte channels(){
+        return channels;
+    }
+
+    /**
+     * @return (byte) - Color space of the image
+     */
+    public byte colorSpace(){
+        return colorSpace;
+    }
+
+    /**
+     * @return (long) - Number of pixels of the image
+     */
+    public long pixelCount(){
+        return (long) width * height;
+    }
+
+    /**
+     * Get a pixel
+     * @param x (int) - Column of the pixel
+     * @param y (int) - Row of the pixel
+     * @return (int) - ARGB packed pixel
+     * @throws AssertionError if the image is closed or the pixel is outside of the image
+     */
+    public int getPixel(int x, int y){
+        assert x >= 0 && x < width;
+        return view(y).get((y % rowsPerChunk) * width + x);
+    }
+
+    /**
+     * Set a pixel
+     * @param x (int) - Column of the pixel
+     * @param y (int) - Row of the pixel
+     * @param argb (int) - ARGB packed pixel
+     * @throws AssertionError if the image is closed or the pixel is outside of the image
+     */
+    public void setPixel(int x, int y, int argb){
+        assert x >= 0 && x < width;
+        view(y).put((y % rowsPerChunk) * width + x, argb);
+    }
+
+    /**
+     * Copy a row of the image
+     * @param y (int) - Index of the row
+     * @param row (int[]) - Buffer where to store the ARGB packed pixels
+     * @throws AssertionError if the image is closed, the row does not exist
+     *  or the buffer length differs from the width
+     */
+    public void getRow(int y, int[] row){
+        assert row != null && row.length == width;
+        view(y).get((y % rowsPerChunk) * width, row);
+    }
+
+    /**
+     * Overwrite a row of the image
+     * @param y (int) - Index of the row
+     * @param row (int[]) - ARGB packed pixels of the row
+     * @throws AssertionError if the image is closed, the row does not exist
+     *  or the buffer length differs from the width
+     */
+    public void setRow(int y, int[] row){
+        assert row != null && row.length == width;
+        view(y).put((y % rowsPerChunk) * width, row);
+    }
+
+    /**
+     * Write the mapped buffers to the disk and drop the references of this image to its buffers,
+     * which cannot be used anymore. No memory is freed : it is freed only by the garbage collector,
+     * once the buffers are unreachable. Calling this method more than once has no effect.
+     */
+    public void close(){
+        if (chunks == null)
+            return;
+        if (mapped){
+            for (var chunk : chunks){
+                ((MappedByteBuffer) chunk).force();
+            }
+        }
+        chunks = null;
+        views = null;
+    }
+
+    private IntBuffer view(int y){
+        assert views != null : "The image is closed";
+        assert y >= 0 && y < height;
+        return views[y / rowsPerChunk];
+    }
+
+    // ==================================================================================
+    // ================================== LAYOUT ========================================
+    // ==================================================================================
+
+    private static void checkHeader(int width, int height, byte channels, byte colorSpace){
+        assert width > 0 && height > 0;
+        assert (long) width * Integer.BYTES <= MAX_CHUNK_SIZE;
+        assert channels == QOISpecification.RGB || channels == QOISpecification.RGBA;
+        assert colorSpace == QOISpecification.sRGB || colorSpace == QOISpecification.ALL;
+    }
+
+    private static int rowsPerChunk(int width){
+        return MAX_CHUNK_SIZE / (width * Integer.BYTES);
+    }
+
+    private static int chunkSize(int width, int height, int rowsPerChunk, int chunk){
+        var rows = Math.min(rowsPerChunk, height - chunk * rowsPerChunk);
+        return rows * width * Integer.BYTES;
+    }
+
+}
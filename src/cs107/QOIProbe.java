@@ -0,0 +1,258 @@
+package cs107;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads the metadata of "Quite Ok Image" files without reading their chunks :
+ * only the header and, optionally, the last bytes holding the "QOI_EOF" are read.
+ * A whole directory tree can be scanned in parallel and summarized as CSV or JSON.
+ * Usage : {@code QOIProbe [--eof] [--json] [--threads n] root}
+ * @since 1.3
+ */
+public final class QOIProbe {
+
+    /**
+     * Metadata of a file
+     * @param file (Path) - Probed file
+     * @param size (long) - Size of the file in bytes
+     * @param width (int) - Width of the image, 0 if the file could not be probed
+     * @param height (int) - Height of the image, 0 if the file could not be probed
+     * @param channels (byte) - Number of channels, 0 if the file could not be probed
+     * @param colorSpace (byte) - Color space, 0 if the file could not be probed
+     * @param eof (Boolean) - true if the file ends with a "QOI_EOF" (possibly followed by an
+     *  embedded {@link QOICheckpointIndex}), null if it was not checked
+     * @param error (String) - Why the file could not be probed, null if it was
+     */
+    public record Info(Path file, long size, int width, int height, byte channels, byte colorSpace, Boolean eof, String error) {}
+
+    // Only static methods
+    private QOIProbe(){}
+
+    // ==================================================================================
+    // ================================= PROBE METHODS ==================================
+    // ==================================================================================
+
+    /**
+     * Read the header of a file, and its last bytes if asked
+     * @param file (Path) - "Quite Ok Image" file
+     * @param checkEof (boolean) - true to check that the file ends with a "QOI_EOF"
+     * @return (Info) - Metadata of the file
+     * @throws AssertionError if file is null
+     * @throws RuntimeException if the header is corrupted
+     * @throws IOException if the file cannot be read
+     */
+    public static Info probe(Path file, boolean checkEof) throws IOException {
+        assert file != null;
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)){
+            var size = channel.size();
+            if (size < QOISpecification.HEADER_SIZE + QOISpecification.QOI_EOF.length)
+                return Helper.fail("The file is too small to be a \"Quite Ok Image\"");
+            var header = readFully(channel, 0, QOISpecification.HEADER_SIZE);
+            var info = QOIDecoder.readHeader(header, 0);
+            var eof = checkEof ? endsWithEof(channel, size) : null;
+            return new Info(file, size, info[0], info[1], (byte) info[2], (byte) info[3], eof, null);
+        }
+    }
+
+    /**
+     * Check the "QOI_EOF", skipping the index embedded by {@link QOICheckpointIndex#embed(byte[])} if any
+     */
+    private static boolean endsWithEof(FileChannel channel, long size) throws IOException {
+        var end = size;
+        var magic = QOICheckpointIndex.INDEX_MAGIC;
+        var trailer = readFully(channel, size - Integer.BYTES - magic.length, Integer.BYTES + magic.length);
+        if (Arrays.equals(trailer, Integer.BYTES, trailer.length, magic, 0, magic.length))
+            end -= Integer.BYTES + magic.length + (ByteBuffer.wrap(trailer).getInt() & 0xFFFF_FFFFL);
+        var eof = QOISpecification.QOI_EOF;
+        if (end - eof.length < QOISpecification.HEADER_SIZE)
+            return false;
+        return Arrays.equals(readFully(channel, end - eof.length, eof.length), eof);
+    }
+
+    private static byte[] readFully(FileChannel channel, long position, int length) throws IOException {
+        var buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()){
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                Helper.fail("Unexpected end of file");
+        }
+        return buffer.array();
+    }
+
+    // ==================================================================================
+    // ================================= SCAN METHODS ===================================
+    // ==================================================================================
+
+    /**
+     * Command line entry point, prints the summary of a tree on the standard output
+     * @param args (String[]) - Arguments, see the documentation of the class
+     * @throws IOException if the tree cannot be walked
+     * @throws InterruptedException if the thread is interrupted while waiting for the pool
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        var checkEof = false;
+        var json = false;
+        var threads = 4 * Runtime.getRuntime().availableProcessors();
+        Path root = null;
+        for (var i = 0; i < args.length; ++i){
+            switch (args[i]){
+                case "--eof" -> checkEof = true;
+                case "--json" -> json = true;
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                default -> root = Path.of(args[i]);
+            }
+        }
+        if (root == null){
+            System.err.println("Usage : QOIProbe [--eof] [--json] [--threads n] root");
+            System.exit(2);
+        }
+        var infos = scan(root, checkEof, threads);
+        if (json)
+            writeJson(infos, System.out);
+        else
+            writeCsv(infos, System.out);
+    }
+
+    /**
+     * Probe every ".qoi" file of a tree in parallel. A file which cannot be probed
+     * is reported with an error instead of stopping the scan.
+     * @param root (Path) - Directory to walk
+     * @param checkEof (boolean) - true to check the "QOI_EOF" of every file
+     * @param threads (int) - Number of threads, the work is bound by the I/O so it can exceed the number of cores
+     * @return (List&lt;Info&gt;) - Metadata of every file, sorted by path
+     * @throws AssertionError if root is null or threads is not positive
+     * @throws IOException if the tree cannot be walked
+     * @throws InterruptedException if the thread is interrupted while waiting for the pool
+     */
+    public static List<Info> scan(Path root, boolean checkEof, int threads) throws IOException, InterruptedException {
+        assert root != null && threads > 0;
+        var pool = Executors.newFixedThreadPool(threads);
+        try (var files = Files.walk(root)){
+            var tasks = new ArrayList<Future<Info>>();
+            files.filter(Files::isRegularFile)
+                    .filter(f -> f.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".qoi"))
+                    .forEach(f -> tasks.add(pool.submit(() -> probeOrReport(f, checkEof))));
+            var infos = new ArrayList<Info>(tasks.size());
+            for (var task : tasks){
+                infos.add(task.get());
+            }
+            infos.sort(Comparator.comparing(Info::file));
+            return infos;
+        } catch (ExecutionException e){
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static Info probeOrReport(Path file, boolean checkEof){
+        try {
+            return probe(file, checkEof);
+        } catch (IOException | RuntimeException e){
+            var size = -1L;
+            try {
+                size = Files.size(file);
+            } catch (IOException ignored){
+                // The size stays unknown
+            }
+            return new Info(file, size, 0, 0, (byte) 0, (byte) 0, null, String.valueOf(e.getMessage()));
+        }
+    }
+
+    // ==================================================================================
+    // ================================ OUTPUT METHODS ==================================
+    // ==================================================================================
+
+    /**
+     * Write the metadata as CSV, one line per file after a header line
+     * @param infos (List&lt;Info&gt;) - Metadata to write
+     * @param output (Appendable) - Where to write
+     * @throws UncheckedIOException if the output cannot be written
+     */
+    public static void writeCsv(List<Info> infos, Appendable output){
+        try {
+            output.append("path,size,width,height,channels,colorspace,eof,error\n");
+            for (var info : infos){
+                output.append(csv(info.file().toString())).append(',')
+                        .append(String.valueOf(info.size())).append(',')
+                        .append(String.valueOf(info.width())).append(',')
+                        .append(String.valueOf(info.height())).append(',')
+                        .append(String.valueOf(info.channels())).append(',')
+                        .append(String.valueOf(info.colorSpace())).append(',')
+                        .append(info.eof() == null ? "" : info.eof().toString()).append(',')
+                        .append(info.error() == null ? "" : csv(info.error())).append('\n');
+            }
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Write the metadata as a JSON array, one object per file
+     * @param infos (List&lt;Info&gt;) - Metadata to write
+     * @param output (Appendable) - Where to write
+     * @throws UncheckedIOException if the output cannot be written
+     */
+    public static void writeJson(List<Info> infos, Appendable output){
+        try {
+            output.append("[");
+            var first = true;
+            for (var info : infos){
+                output.append(first ? "\n" : ",\n");
+                first = false;
+                output.append("  {\"path\": ").append(json(info.file().toString()))
+                        .append(", \"size\": ").append(String.valueOf(info.size()))
+                        .append(", \"width\": ").append(String.valueOf(info.width()))
+                        .append(", \"height\": ").append(String.valueOf(info.height()))
+                        .append(", \"channels\": ").append(String.valueOf(info.channels()))
+                        .append(", \"colorspace\": ").append(String.valueOf(info.colorSpace()))
+                        .append(", \"eof\": ").append(String.valueOf(info.eof()))
+                        .append(", \"error\": ").append(info.error() == null ? "null" : json(info.error()))
+                        .append("}");
+            }
+            output.append(first ? "]\n" : "\n]\n");
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String csv(String value){
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0)
+            return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static String json(String value){
+        var builder = new StringBuilder("\"");
+        for (var c : value.toCharArray()){
+            switch (c){
+                case '"' -> builder.append("\\\"");
+                case '\\' -> builder.append("\\\\");
+                case '\n' -> builder.append("\\n");
+                case '\r' -> builder.append("\\r");
+                case '\t' -> builder.append("\\t");
+                default -> {
+                    if (c < 0x20)
+                        builder.append(String.format("\\u%04x", (int) c));
+                    else
+                        builder.append(c);
+                }
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+}
@@ -0,0 +1,191 @@
+package cs107;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Push "Quite Ok Image" Decoder, for bytes arriving in pieces of any size (e.g. from a socket).
+ * Unlike {@link QOIStreamDecoder}, which pulls bytes from its input and blocks until they arrive,
+ * the caller hands over the bytes with {@link #feed(ByteBuffer)} whenever they are available.
+ * Every call decodes as many whole chunks as possible and hands the completed rows to the sink,
+ * a chunk split between two calls is kept until its last bytes arrive. It never blocks,
+ * so it can be driven by a selector loop or a reactive pipeline.
+ * An instance is not thread-safe and cannot be used anymore once it failed.
+ * @since 1.3
+ */
+public final class QOIPushDecoder {
+
+    private final QOIStreamDecoder.RowSink sink;
+    private final byte[] buffer = new byte[QOIStreamDecoder.BUFFER_SIZE];
+    private final QOIDecoderState state = new QOIDecoderState();
+
+    private int limit = 0;
+    private int width = -1;
+    private int height = -1;
+    private byte channels;
+    private byte colorSpace;
+    private int[] row;
+    private int x = 0;
+    private int rows = 0;
+    private boolean complete = false;
+
+    /**
+     * Create a new decoder waiting for the header of an image
+     * @param sink (QOIStreamDecoder.RowSink) - Receiver of the decoded rows
+     * @throws AssertionError if the sink is null
+     */
+    public QOIPushDecoder(QOIStreamDecoder.RowSink sink){
+        assert sink != null;
+        this.sink = sink;
+    }
+
+    // ==================================================================================
+    // ==================================== HEADER ======================================
+    // ==================================================================================
+
+    /**
+     * @return (boolean) - true if the header was received, which gives the size of the image
+     */
+    public boolean hasHeader(){
+        return width != -1;
+    }
+
+    /**
+     * @return (int) - Width of the image, -1 before the header is received
+     */
+    public int width(){
+        return width;
+    }
+
+    /**
+     * @return (int) - Height of the image, -1 before the header is received
+     */
+    public int height(){
+        return height;
+    }
+
+    /**
+     * @return (byte) - Number of channels of the image, 0 before the header is received
+     */
+    public byte channels(){
+        return channels;
+    }
+
+    /**
+     * @return (byte) - Color space of the image, 0 before the header is received
+     */
+    public byte colorSpace(){
+        return colorSpace;
+    }
+
+    /**
+     * @return (int) - Number of rows handed to the sink so far
+     */
+    public int rows(){
+        return rows;
+    }
+
+    /**
+     * @return (boolean) - true once all the rows and the "QOI_EOF" were received
+     */
+    public boolean isComplete(){
+        return complete;
+    }
+
+    // ==================================================================================
+    // ================================ DECODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Decode the bytes between the position and the limit of the input. The position
+     * of the input is moved after the consumed bytes : all of them, unless the image is complete,
+     * in which case it is moved right after the "QOI_EOF" so that the following bytes can be used
+     * for something else (e.g. the next image of a connection).
+     * @param input (ByteBuffer) - Next bytes of the file, heap or direct
+     * @return (boolean) - true if the image is complete
+     * @throws AssertionError if the input is null
+     * @throws RuntimeException if the bytes are corrupted
+     */
+    public boolean feed(ByteBuffer input){
+        assert input != null;
+        while (!complete && input.hasRemaining()){
+            compact();
+            var n = Math.min(input.remaining(), buffer.length - limit);
+            input.get(buffer, limit, n);
+            limit += n;
+            decode();
+        }
+        if (complete)
+            input.position(input.position() - (limit - state.position));
+        return complete;
+    }
+
+    /**
+     * Signal that no more bytes will be fed
+     * @throws RuntimeException if the image is not complete
+     */
+    public void finish(){
+        if (complete)
+            return;
+        if (hasHeader() && rows == height)
+            Helper.fail("Unexpected end of stream, \"QOI_EOF\" is missing");
+        Helper.fail("Unexpected end of stream at row %d", rows);
+    }
+
+    /**
+     * Forget the current image to decode the next one, e.g. on the same connection.
+     * The bytes fed after the "QOI_EOF" of the current image are not kept.
+     */
+    public void reset(){
+        state.reset();
+        limit = 0;
+        width = -1;
+        height = -1;
+        channels = 0;
+        colorSpace = 0;
+        row = null;
+        x = 0;
+        rows = 0;
+        complete = false;
+    }
+
+    /**
+     * Decode as much as possible from the buffered bytes
+     */
+    private void decode(){
+        if (!hasHeader()){
+            if (limit - state.position < QOISpecification.HEADER_SIZE)
+                return;
+            var header = QOIDecoder.readHeader(buffer, state.position);
+            width = header[0];
+            height = header[1];
+            channels = (byte) header[2];
+            colorSpace = (byte) header[3];
+            row = new int[width];
+            state.position += QOISpecification.HEADER_SIZE;
+        }
+        while (rows < height){
+            x += state.decode(buffer, limit, row, x, width);
+            if (x < width)
+                return;
+            x = 0;
+            sink.row(rows++, row);
+        }
+        state.checkComplete();
+        if (limit - state.position < QOISpecification.QOI_EOF.length)
+            return;
+        QOIDecoder.checkEof(buffer, state.position);
+        state.position += QOISpecification.QOI_EOF.length;
+        complete = true;
+    }
+
+    /**
+     * Move the unread bytes, at most a partial chunk or header, at the start of the buffer
+     */
+    private void compact(){
+        var remaining = limit - state.position;
+        System.arraycopy(buffer, state.position, buffer, 0, remaining);
+        state.position = 0;
+        limit = remaining;
+    }
+
+}
@@ -0,0 +1,132 @@
+package cs107;
+
+/**
+ * "Quite Ok Image" Decoder owning its state, so that decoding many small images
+ * (icons, thumbnails...) does not allocate anything but the results.
+ * An instance is not thread-safe, use {@link #current()} to get the one of the calling thread.
+ * @since 1.3
+ */
+public final class QOIReusableDecoder {
+
+    private static final ThreadLocal<QOIReusableDecoder> CURRENT = ThreadLocal.withInitial(QOIReusableDecoder::new);
+
+    private final QOIDecoderState state = new QOIDecoderState();
+    private int width;
+    private int height;
+    private byte channels;
+    private byte colorSpace;
+
+    /**
+     * Create a new decoder. Prefer {@link #current()} to share one decoder per thread.
+     */
+    public QOIReusableDecoder(){}
+
+    /**
+     * @return (QOIReusableDecoder) - The decoder of the calling thread
+     */
+    public static QOIReusableDecoder current(){
+        return CURRENT.get();
+    }
+
+    // ==================================================================================
+    // ==================================== HEADER ======================================
+    // ==================================================================================
+
+    // The header accessors describe the last image decoded successfully :
+    // they are only updated once the whole file was checked
+
+    /**
+     * @return (int) - Width of the last decoded image
+     */
+    public int width(){
+        return width;
+    }
+
+    /**
+     * @return (int) - Height of the last decoded image
+     */
+    public int height(){
+        return height;
+    }
+
+    /**
+     * @return (byte) - Number of channels of the last decoded image
+     */
+    public byte channels(){
+        return channels;
+    }
+
+    /**
+     * @return (byte) - Color space of the last decoded image
+     */
+    public byte colorSpace(){
+        return colorSpace;
+    }
+
+    // ==================================================================================
+    // ================================ DECODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Decode a file using the "Quite Ok Image" Protocol. Only the image is allocated.
+     * @param content (byte[]) - Content of the file to decode
+     * @return (Helper.Image) - Decoded image
+     * @throws AssertionError if content is null
+     * @throws RuntimeException if the file is corrupted
+     */
+    public Helper.Image decodeQoiFile(byte[] content){
+        var header = readHeader(content);
+        var rows = new int[header[1]][header[0]];
+        for (var row : rows){
+            state.decodeFully(content, content.length, row, 0, row.length);
+        }
+        checkEnd(content);
+        setHeader(header);
+        return Helper.generateImage(rows, channels, colorSpace);
+    }
+
+    /**
+     * Decode a file in the given buffer, row after row, without allocating.
+     * The size of the image is then given by {@link #width()} and {@link #height()}.
+     * @param content (byte[]) - Content of the file to decode
+     * @param dst (int[]) - Buffer where to store the ARGB packed pixels
+     * @param off (int) - Index in the buffer of the first pixel
+     * @return (int) - The number of decoded pixels
+     * @throws AssertionError if one of the parameters is null
+     * @throws RuntimeException if the file is corrupted or the buffer is too small
+     */
+    public int decodeQoiFile(byte[] content, int[] dst, int off){
+        assert dst != null && off >= 0;
+        var header = readHeader(content);
+        var count = (long) header[0] * header[1];
+        if (count > dst.length - off)
+            Helper.fail("The buffer is too small for a %d x %d image", header[0], header[1]);
+        state.decodeFully(content, content.length, dst, off, off + (int) count);
+        checkEnd(content);
+        setHeader(header);
+        return (int) count;
+    }
+
+    private int[] readHeader(byte[] content){
+        assert content != null;
+        if (content.length < QOISpecification.HEADER_SIZE)
+            Helper.fail("The content is too small to be a \"Quite Ok Image\"");
+        var header = QOIDecoder.readHeader(content, 0);
+        state.reset();
+        state.position = QOISpecification.HEADER_SIZE;
+        return header;
+    }
+
+    private void setHeader(int[] header){
+        width = header[0];
+        height = header[1];
+        channels = (byte) header[2];
+        colorSpace = (byte) header[3];
+    }
+
+    private void checkEnd(byte[] content){
+        state.checkComplete();
+        QOIDecoder.checkEof(content, state.position);
+    }
+
+}
@@ -0,0 +1,86 @@
+package cs107;
+
+import java.util.Arrays;
+
+/**
+ * "Quite Ok Image" Encoder owning its state and its output buffer, so that encoding
+ * many small images (icons, thumbnails...) does not allocate anything but the results.
+ * An instance is not thread-safe, use {@link #current()} to get the one of the calling thread.
+ * @since 1.3
+ */
+public final class QOIReusableEncoder {
+
+    private static final ThreadLocal<QOIReusableEncoder> CURRENT = ThreadLocal.withInitial(QOIReusableEncoder::new);
+
+    /**
+     * Largest output buffer kept between two calls, in bytes. A larger one is only used for
+     * the call that needed it, so that one large image does not pin its buffer for the life of the thread.
+     */
+    static final int MAX_RETAINED_SIZE = 1 << 22;
+
+    private final QOIEncoderState state = new QOIEncoderState();
+    private byte[] scratch = new byte[0];
+
+    /**
+     * Create a new encoder. Prefer {@link #current()} to share one encoder per thread.
+     */
+    public QOIReusableEncoder(){}
+
+    /**
+     * @return (QOIReusableEncoder) - The encoder of the calling thread
+     */
+    public static QOIReusableEncoder current(){
+        return CURRENT.get();
+    }
+
+    // ==================================================================================
+    // ================================ ENCODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Creates the representation in memory of the "Quite Ok Image" file.
+     * Only the returned array is allocated once the internal buffer is large enough,
+     * unless the image needs more than {@link #MAX_RETAINED_SIZE} bytes in the worst case.
+     * @param image (Helper.Image) - Image to encode
+     * @return (byte[]) - Binary representation of the "Quite Ok File" of the image
+     * @throws AssertionError if the image is null
+     */
+    public byte[] qoiFile(Helper.Image image){
+        assert image != null;
+        var data = image.data();
+        var bound = QOIEncoder.maxEncodedSize(data[0].length, data.length, image.channels());
+        if (bound > Integer.MAX_VALUE - 8)
+            return Helper.fail("The image is too large to be encoded in an array : %d x %d", data[0].length, data.length);
+        var buffer = scratch;
+        if (buffer.length < bound){
+            buffer = new byte[(int) bound];
+            if (bound <= MAX_RETAINED_SIZE)
+                scratch = buffer;
+        }
+        return Arrays.copyOf(buffer, qoiFile(image, buffer, 0));
+    }
+
+    /**
+     * Write the "Quite Ok Image" file of the image in the given buffer, without allocating
+     * @param image (Helper.Image) - Image to encode
+     * @param dst (byte[]) - Buffer where to write the file, it needs room for
+     *  {@link QOIEncoder#maxEncodedSize(int, int, byte)} bytes in the worst case
+     * @param off (int) - Index in the buffer to start writing from
+     * @return (int) - The number of written bytes
+     * @throws AssertionError if one of the parameters is null or the buffer is too small
+     */
+    public int qoiFile(Helper.Image image, byte[] dst, int off){
+        assert image != null && dst != null;
+        var data = image.data();
+        var start = off;
+        state.reset();
+        off = QOIEncoder.writeHeader(dst, off, data[0].length, data.length, image.channels(), image.color_space());
+        for (var row : data){
+            off = state.encode(row, 0, row.length, dst, off);
+        }
+        off = state.flush(dst, off);
+        System.arraycopy(QOISpecification.QOI_EOF, 0, dst, off, QOISpecification.QOI_EOF.length);
+        return off + QOISpecification.QOI_EOF.length - start;
+    }
+
+}
@@ -77,6 +77,11 @@ public final class QOISpecification {
      */
     public static final byte[] START_PIXEL = new byte[]{0, 0, 0, (byte) 255};
 
+    /**
+     * First pixel to be stored as "previous pixel", packed as an ARGB integer
+     */
+    public static final int START_PIXEL_ARGB = 0xFF_00_00_00;
+
     // ==================================================================================
     // ============================ "Quite Ok Image" EOF ================================
     // ==================================================================================
@@ -120,6 +125,11 @@ public final class QOISpecification {
      */
     public static final byte QOI_OP_RUN_TAG   = (byte) 0b11_00_00_00;
 
+    /**
+     * Longest run that can be stored in a single "QOI_OP_RUN" chunk
+     */
+    public static final int QOI_OP_RUN_MAX = 62;
+
     // ==================================================================================
     // ======================== "Quite Ok Image" Hash Function ==========================
     // ==================================================================================
@@ -136,4 +146,14 @@ public final class QOISpecification {
         return (byte) (tmp < 0 ? tmp + 64 : tmp);
     }
 
+    /**
+     * Hash a given pixel using the hash function specific to "Quite Ok Image" format
+     * @apiNote Same function as {@link #hash(byte[])} but for a packed pixel
+     * @param argb (int) - ARGB packed pixel to hash
+     * @return (int) - hash of the pixel
+     */
+    public static int hash(int argb){
+        return (((argb >> 16) & 0xFF) * 3 + ((argb >> 8) & 0xFF) * 5 + (argb & 0xFF) * 7 + (argb >>> 24) * 11) & 0x3F;
+    }
+
 }
\ No newline at end of file
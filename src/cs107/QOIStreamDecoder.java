@@ -0,0 +1,285 @@
+package cs107;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+
+/**
+ * Streaming "Quite Ok Image" Decoder.
+ * The chunks are read from an {@link InputStream} or a {@link ReadableByteChannel}
+ * through a small fixed-size buffer and every row is handed to the caller as
+ * soon as it is complete. Neither the whole file nor the whole image is kept in memory.
+ * The reads are blocking : use a {@link QOIPushDecoder} for non-blocking channels.
+ * @since 1.3
+ */
+public final class QOIStreamDecoder {
+
+    /**
+     * Size of the internal buffer
+     */
+    public static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Receives the decoded rows of an image
+     */
+    @FunctionalInterface
+    public interface RowSink {
+
+        /**
+         * Called once per row, in order
+         * @apiNote The array is reused for the next row, copy it to keep the pixels
+         * @param y (int) - Index of the row
+         * @param row (int[]) - ARGB packed pixels of the row
+         */
+        void row(int y, int[] row);
+
+    }
+
+    private final Source source;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final QOIDecoderState state = new QOIDecoderState();
+    private final int width;
+    private final int height;
+    private final byte channels;
+    private final byte colorSpace;
+
+    private int limit = 0;
+    private boolean exhausted = false;
+    private int rows = 0;
+
+    // ==================================================================================
+    // ================================== CONSTRUCTORS ==================================
+    // ==================================================================================
+
+    /**
+     * Create a new decoder reading from the given stream. The header is read right away.
+     * @param input (InputStream) - Stream to read from
+     * @throws AssertionError if the input is null
+     * @throws RuntimeException if the header is corrupted
+     * @throws IOException if the header cannot be read
+     */
+    public QOIStreamDecoder(InputStream input) throws IOException {
+        this(streamSource(input));
+    }
+
+    /**
+     * Create a new decoder reading from the given channel. The header is read right away.
+     * @param input (ReadableByteChannel) - Channel to read from, in blocking mode
+     * @throws AssertionError if the input is null
+     * @throws IllegalArgumentException if the channel is in non-blocking mode
+     * @throws RuntimeException if the header is corrupted
+     * @throws IOException if the header cannot be read
+     */
+    public QOIStreamDecoder(ReadableByteChannel input) throws IOException {
+        this(channelSource(input));
+    }
+
+    private QOIStreamDecoder(Source source) throws IOException {
+        this.source = source;
+        if (!require(QOISpecification.HEADER_SIZE))
+            Helper.fail("Unexpected end of stream in the \"Quite Ok Image\" header");
+        var header = QOIDecoder.readHeader(buffer, 0);
+        width = header[0];
+        height = header[1];
+        channels = (byte) header[2];
+        colorSpace = (byte) header[3];
+        state.position = QOISpecification.HEADER_SIZE;
+    }
+
+    // ==================================================================================
+    // ==================================== HEADER ======================================
+    // ==================================================================================
+
+    /**
+     * @return (int) - Width of the image
+     */
+    public int width(){
+        return width;
+    }
+
+    /**
+     * @return (int) - Height of the image
+     */
+    public int height(){
+        return height;
+    }
+
+    /**
+     * @return (byte) - Number of channels of the image
+     */
+    public byte channels(){
+        return channels;
+    }
+
+    /**
+     * @return (byte) - Color space of the image
+     */
+    public byte colorSpace(){
+        return colorSpace;
+    }
+
+    // ==================================================================================
+    // ================================ DECODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Decode the next row of the image. Once the last row is decoded,
+     * the "QOI_EOF" is checked.
+     * @param row (int[]) - Buffer where to store the ARGB packed pixels of the row
+     * @return (boolean) - true if a row was decoded, false if all the rows were already decoded
+     * @throws AssertionError if the row is null or its length differs from the width
+     * @throws RuntimeException if the stream is corrupted
+     * @throws IOException if the stream cannot be read
+     */
+    public boolean readRow(int[] row) throws IOException {
+        assert row != null && row.length == width;
+        if (rows == height)
+            return false;
+        var x = 0;
+        while (x < width){
+            x += state.decode(buffer, limit, row, x, width);
+            if (x < width && !fill())
+                Helper.fail("Unexpected end of stream at row %d", rows);
+        }
+        if (++rows == height)
+            checkEnd();
+        return true;
+    }
+
+    /**
+     * Decode all the remaining rows of the image
+     * @param sink (RowSink) - Receiver of the decoded rows
+     * @throws AssertionError if the sink is null
+     * @throws RuntimeException if the stream is corrupted
+     * @throws IOException if the stream cannot be read
+     */
+    public void decode(RowSink sink) throws IOException {
+        assert sink != null;
+        var row = new int[width];
+        while (rows < height){
+            var y = rows;
+            readRow(row);
+            sink.row(y, row);
+        }
+    }
+
+    /**
+     * Decode a whole image from the given stream
+     * @param input (InputStream) - Stream to read from
+     * @return (Helper.Image) - Decoded image
+     * @throws AssertionError if the input is null
+     * @throws RuntimeException if the stream is corrupted
+     * @throws IOException if the stream cannot be read
+     */
+    public static Helper.Image decode(InputStream input) throws IOException {
+        return decodeImage(new QOIStreamDecoder(input));
+    }
+
+    /**
+     * Decode a whole image from the given channel
+     * @param input (ReadableByteChannel) - Channel to read from, in blocking mode
+     * @return (Helper.Image) - Decoded image
+     * @throws AssertionError if the input is null
+     * @throws RuntimeException if the stream is corrupted
+     * @throws IOException if the channel cannot be read
+     */
+    public static Helper.Image decode(ReadableByteChannel input) throws IOException {
+        return decodeImage(new QOIStreamDecoder(input));
+    }
+
+    /**
+     * Decode a whole image from the given channel in a new off-heap image
+     * @param input (ReadableByteChannel) - Channel to read from, in blocking mode
+     * @return (QOIOffHeapImage) - Decoded image
+     * @throws AssertionError if the input is null
+     * @throws RuntimeException if the stream is corrupted
+     * @throws IOException if the channel cannot be read
+     */
+    public static QOIOffHeapImage decodeOffHeap(ReadableByteChannel input) throws IOException {
+        var decoder = new QOIStreamDecoder(input);
+        var image = QOIOffHeapImage.allocate(decoder.width, decoder.height, decoder.channels, decoder.colorSpace);
+        decoder.decode(image::setRow);
+        return image;
+    }
+
+    private static Helper.Image decodeImage(QOIStreamDecoder decoder) throws IOException {
+        var data = new int[decoder.height][decoder.width];
+        for (var row : data){
+            decoder.readRow(row);
+        }
+        return Helper.generateImage(data, decoder.channels, decoder.colorSpace);
+    }
+
+    // ==================================================================================
+    // ================================= INPUT METHODS ==================================
+    // ==================================================================================
+
+    private void checkEnd() throws IOException {
+        state.checkComplete();
+        var eof = QOISpecification.QOI_EOF;
+        if (!require(eof.length))
+            Helper.fail("Unexpected end of stream, \"QOI_EOF\" is missing");
+        for (var i = 0; i < eof.length; ++i){
+            if (buffer[state.position + i] != eof[i])
+                Helper.fail("Invalid \"QOI_EOF\"");
+        }
+        state.position += eof.length;
+    }
+
+    /**
+     * Make sure at least n bytes are available after the current position
+     * @return (boolean) - false if the stream ended before
+     */
+    private boolean require(int n) throws IOException {
+        while (limit - state.position < n){
+            if (!fill())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Move the unread bytes at the start of the buffer and read more bytes
+     * @return (boolean) - false if the stream is exhausted
+     */
+    private boolean fill() throws IOException {
+        if (exhausted)
+            return false;
+        var remaining = limit - state.position;
+        System.arraycopy(buffer, state.position, buffer, 0, remaining);
+        state.position = 0;
+        limit = remaining;
+        var read = source.read(buffer, limit, buffer.length - limit);
+        if (read < 0){
+            exhausted = true;
+            return false;
+        }
+        // A blocking read returns at least one byte, retrying would spin forever
+        if (read == 0)
+            throw new IOException("No bytes were read, the input is not blocking");
+        limit += read;
+        return true;
+    }
+
+    /**
+     * Origin of the encoded bytes
+     */
+    private interface Source {
+        int read(byte[] bytes, int off, int length) throws IOException;
+    }
+
+    private static Source streamSource(InputStream input){
+        assert input != null;
+        return input::read;
+    }
+
+    private static Source channelSource(ReadableByteChannel input){
+        assert input != null;
+        if (input instanceof SelectableChannel selectable && !selectable.isBlocking())
+            throw new IllegalArgumentException("The channel must be in blocking mode, use a QOIPushDecoder instead");
+        return (bytes, off, length) -> input.read(ByteBuffer.wrap(bytes, off, length));
+    }
+
+}
@@ -0,0 +1,433 @@
+package cs107;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Streaming "Quite Ok Image" Encoder.
+ * The image is given row by row and the header, the chunks and the "QOI_EOF"
+ * are sent to an {@link OutputStream}, a {@link WritableByteChannel} or a {@link ByteBuffer}
+ * through a small fixed-size buffer. The memory used does not depend on the
+ * size of the image. Between two rows, the state of the encoder can be saved with
+ * {@link #snapshot()} to resume the encoding later, e.g. after the process restarted.
+ * The writes are blocking, channels in non-blocking mode are not supported.
+ * @since 1.3
+ */
+public final class QOIStreamEncoder implements Closeable {
+
+    /**
+     * Size of the internal buffer
+     */
+    public static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Magic Number of a serialized snapshot, distinct from the ones of
+     * {@link QOIStripContainer#CONTAINER_MAGIC} and {@link QOICheckpointIndex#INDEX_MAGIC}
+     */
+    public static final byte[] SNAPSHOT_MAGIC = new byte[]{'q', 'o', 'i', 'e'};
+
+    /**
+     * Version of the serialized snapshot format, stored right after the magic number
+     */
+    public static final byte SNAPSHOT_VERSION = 1;
+
+    private static final int SNAPSHOT_SIZE = SNAPSHOT_MAGIC.length + 1 + 4 + 4 + 1 + 1 + 4 + 8 + 4 + 4 + 64 * 4;
+
+    /**
+     * State of an encoder between two rows, once all the chunks before were written
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels
+     * @param colorSpace (byte) - Color space
+     * @param rows (int) - Number of rows encoded before the snapshot
+     * @param bytes (long) - Number of bytes written before the snapshot, header included
+     * @param previous (int) - Previous pixel, ARGB packed
+     * @param run (int) - Number of pixels of the pending run, not written yet
+     * @param index (int[]) - The 64 entries index, ARGB packed
+     */
+    public record Snapshot(int width, int height, byte channels, byte colorSpace, int rows, long bytes,
+                           int previous, int run, int[] index) {
+
+        /**
+         * @return (long) - Number of pixels encoded before the snapshot
+         */
+        public long pixels(){
+            return (long) rows * width;
+        }
+
+        /**
+         * Serialize the snapshot, e.g. to store it next to the partial file
+         * @return (byte[]) - Binary representation of the snapshot
+         */
+        public byte[] toBytes(){
+            var buffer = ByteBuffer.allocate(SNAPSHOT_SIZE);
+            buffer.put(SNAPSHOT_MAGIC).put(SNAPSHOT_VERSION).putInt(width).putInt(height).put(channels).put(colorSpace)
+                    .putInt(rows).putLong(bytes).putInt(previous).putInt(run);
+            for (var px : index){
+                buffer.putInt(px);
+            }
+            return buffer.array();
+        }
+
+        /**
+         * Read a snapshot serialized with {@link #toBytes()}
+         * @param bytes (byte[]) - Binary representation of the snapshot
+         * @return (Snapshot) - The snapshot
+         * @throws AssertionError if bytes is null
+         * @throws RuntimeException if the snapshot is corrupted
+         */
+        public static Snapshot fromBytes(byte[] bytes){
+            assert bytes != null;
+            if (bytes.length != SNAPSHOT_SIZE)
+                return Helper.fail("Invalid snapshot size : %d", bytes.length);
+            var buffer = ByteBuffer.wrap(bytes);
+            var magic = new byte[SNAPSHOT_MAGIC.length];
+            buffer.get(magic);
+            if (!Arrays.equals(magic, SNAPSHOT_MAGIC))
+                return Helper.fail("Invalid snapshot magic number");
+            var version = buffer.get();
+            if (version != SNAPSHOT_VERSION)
+                return Helper.fail("Unsupported snapshot version : %d", version);
+            var width = buffer.getInt();
+            var height = buffer.getInt();
+            var channels = buffer.get();
+            var colorSpace = buffer.get();
+            var rows = buffer.getInt();
+            var written = buffer.getLong();
+            var previous = buffer.getInt();
+            var run = buffer.getInt();
+            var index = new int[64];
+            for (var i = 0; i < index.length; ++i){
+                index[i] = buffer.getInt();
+            }
+            if (width <= 0 || height <= 0 || rows < 0 || rows > height
+                    || channels != QOISpecification.RGB && channels != QOISpecification.RGBA
+                    || colorSpace != QOISpecification.sRGB && colorSpace != QOISpecification.ALL
+                    || written < QOISpecification.HEADER_SIZE || run < 0 || run > QOISpecification.QOI_OP_RUN_MAX)
+                return Helper.fail("Corrupted snapshot");
+            return new Snapshot(width, height, channels, colorSpace, rows, written, previous, run, index);
+        }
+
+    }
+
+    private final Sink sink;
+    private final int width;
+    private final int height;
+    private final byte channels;
+    private final byte colorSpace;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final QOIEncoderState state = new QOIEncoderState();
+
+    private int count = 0;
+    private int rows = 0;
+    private long written = 0;
+    private boolean finished = false;
+    private boolean closed = false;
+
+    // ==================================================================================
+    // ================================== CONSTRUCTORS ==================================
+    // ==================================================================================
+
+    /**
+     * Create a new encoder writing to the given stream. The header is buffered right away.
+     * @param output (OutputStream) - Stream to write to
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels
+     * @param colorSpace (byte) - Color space
+     * @throws AssertionError if the output is null or the header parameters are corrupted
+     */
+    public QOIStreamEncoder(OutputStream output, int width, int height, byte channels, byte colorSpace) {
+        this(streamSink(output), width, height, channels, colorSpace);
+    }
+
+    /**
+     * Create a new encoder writing to the given channel. The header is buffered right away.
+     * @param output (WritableByteChannel) - Channel to write to, in blocking mode
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels
+     * @param colorSpace (byte) - Color space
+     * @throws AssertionError if the output is null or the header parameters are corrupted
+     * @throws IllegalArgumentException if the channel is in non-blocking mode
+     */
+    public QOIStreamEncoder(WritableByteChannel output, int width, int height, byte channels, byte colorSpace) {
+        this(channelSink(output), width, height, channels, colorSpace);
+    }
+
+    /**
+     * Create a new encoder writing in the given buffer, starting at its position.
+     * The header is buffered right away.
+     * @param output (ByteBuffer) - Buffer to write in, heap or direct
+     * @param width (int) - Width of the image
+     * @param height (int) - Height of the image
+     * @param channels (byte) - Number of channels
+     * @param colorSpace (byte) - Color space
+     * @throws AssertionError if the output is null or the header parameters are corrupted
+     */
+    public QOIStreamEncoder(ByteBuffer output, int width, int height, byte channels, byte colorSpace) {
+        this(bufferSink(output), width, height, channels, colorSpace);
+    }
+
+    /**
+     * Resume an encoding from a snapshot, writing to the given stream.
+     * @apiNote The stream must continue the file right after its first {@link Snapshot#bytes()} bytes,
+     *  e.g. a file truncated to that size and opened in append mode
+     * @param output (OutputStream) - Stream to write to
+     * @param snapshot (Snapshot) - State of the interrupted encoder
+     * @throws AssertionError if one of the parameters is null
+     */
+    public QOIStreamEncoder(OutputStream output, Snapshot snapshot) {
+        this(streamSink(output), snapshot);
+    }
+
+    /**
+     * Resume an encoding from a snapshot, writing to the given channel.
+     * @apiNote The channel must continue the file right after its first {@link Snapshot#bytes()} bytes,
+     *  e.g. a file channel truncated to that size
+     * @param output (WritableByteChannel) - Channel to write to, in blocking mode
+     * @param snapshot (Snapshot) - State of the interrupted encoder
+     * @throws AssertionError if one of the parameters is null
+     * @throws IllegalArgumentException if the channel is in non-blocking mode
+     */
+    public QOIStreamEncoder(WritableByteChannel output, Snapshot snapshot) {
+        this(channelSink(output), snapshot);
+    }
+
+    private QOIStreamEncoder(Sink sink, int width, int height, byte channels, byte colorSpace) {
+        this.sink = sink;
+        this.width = width;
+        this.height = height;
+        this.channels = channels;
+        this.colorSpace = colorSpace;
+        count = QOIEncoder.writeHeader(buffer, 0, width, height, channels, colorSpace);
+    }
+
+    private QOIStreamEncoder(Sink sink, Snapshot snapshot) {
+        assert snapshot != null;
+        this.sink = sink;
+        width = snapshot.width();
+        height = snapshot.height();
+        channels = snapshot.channels();
+        colorSpace = snapshot.colorSpace();
+        rows = snapshot.rows();
+        written = snapshot.bytes();
+        state.previous = snapshot.previous();
+        state.run = snapshot.run();
+        System.arraycopy(snapshot.index(), 0, state.index, 0, state.index.length);
+    }
+
+    // ==================================================================================
+    // ================================ ENCODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Encode the next row of the image
+     * @param row (int[]) - ARGB packed pixels of the row
+     * @throws AssertionError if the row is null, if its length differs from the width,
+     *  if all the rows were already written or if the encoder is closed
+     * @throws IOException if the buffer cannot be flushed
+     */
+    public void writeRow(int[] row) throws IOException {
+        assert row != null && row.length == width;
+        assert !finished && !closed && rows < height;
+        var from = 0;
+        while (from < width){
+            var room = (buffer.length - count - 1) / QOIEncoderState.MAX_PIXEL_SIZE;
+            if (room == 0){
+                flush();
+                continue;
+            }
+            var to = Math.min(width, from + room);
+            count = state.encode(row, from, to, buffer, count);
+            from = to;
+        }
+        ++rows;
+    }
+
+    /**
+     * Encode the next rows of the image
+     * @param rows (int[][]) - ARGB packed pixels, one array per row
+     * @throws AssertionError if rows is null or one of the rows is invalid
+     * @throws IOException if the buffer cannot be flushed
+     */
+    public void writeRows(int[][] rows) throws IOException {
+        assert rows != null;
+        for (var row : rows){
+            writeRow(row);
+        }
+    }
+
+    /**
+     * Write the pending run and the "QOI_EOF", then flush the buffer.
+     * Calling this method more than once has no effect.
+     * @apiNote The underlying stream or channel is not closed
+     * @throws IllegalStateException if not all the rows were written
+     * @throws IOException if the buffer cannot be flushed
+     */
+    public void finish() throws IOException {
+        if (finished)
+            return;
+        if (rows != height)
+            throw new IllegalStateException("Only " + rows + " of the " + height + " rows were written");
+        if (buffer.length - count < 1 + QOISpecification.QOI_EOF.length){
+            flush();
+        }
+        count = state.flush(buffer, count);
+        System.arraycopy(QOISpecification.QOI_EOF, 0, buffer, count, QOISpecification.QOI_EOF.length);
+        count += QOISpecification.QOI_EOF.length;
+        flush();
+        finished = true;
+    }
+
+    /**
+     * Write the buffered chunks and save the state of the encoder. The pending run is not
+     * written, it is part of the snapshot. Once the snapshot and the written bytes are stored,
+     * the encoding can be resumed with {@link #QOIStreamEncoder(OutputStream, Snapshot)}
+     * without encoding the previous rows again.
+     * @return (Snapshot) - State of the encoder
+     * @throws AssertionError if the encoder is finished
+     * @throws IOException if the buffer cannot be flushed
+     */
+    public Snapshot snapshot() throws IOException {
+        assert !finished;
+        flush();
+        return new Snapshot(width, height, channels, colorSpace, rows, written, state.previous, state.run, state.index.clone());
+    }
+
+    /**
+     * Flush the buffered chunks and release the encoder. The "QOI_EOF" is only written if all
+     * the rows were written (see {@link #finish()}) : an interrupted encoding never looks like
+     * a complete file, its pending run stays in the state and it can still be resumed from
+     * a {@link #snapshot()}. Calling this method more than once has no effect.
+     * @apiNote The underlying stream or channel is not closed
+     * @throws IOException if the buffer cannot be flushed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        if (rows == height)
+            finish();
+        else
+            flush();
+    }
+
+    /**
+     * Encode a whole image to the given stream
+     * @param image (Helper.Image) - Image to encode
+     * @param output (OutputStream) - Stream to write to
+     * @throws AssertionError if one of the parameters is null
+     * @throws IOException if the stream cannot be written
+     */
+    public static void encode(Helper.Image image, OutputStream output) throws IOException {
+        assert image != null;
+        try (var encoder = new QOIStreamEncoder(output, image.data()[0].length, image.data().length, image.channels(), image.color_space())){
+            encoder.writeRows(image.data());
+            encoder.finish();
+        }
+    }
+
+    /**
+     * Encode a whole image to the given channel
+     * @param image (Helper.Image) - Image to encode
+     * @param output (WritableByteChannel) - Channel to write to, in blocking mode
+     * @throws AssertionError if one of the parameters is null
+     * @throws IOException if the channel cannot be written
+     */
+    public static void encode(Helper.Image image, WritableByteChannel output) throws IOException {
+        assert image != null;
+        try (var encoder = new QOIStreamEncoder(output, image.data()[0].length, image.data().length, image.channels(), image.color_space())){
+            encoder.writeRows(image.data());
+            encoder.finish();
+        }
+    }
+
+    /**
+     * Encode a whole off-heap image to the given channel, one row at a time
+     * @param image (QOIOffHeapImage) - Image to encode
+     * @param output (WritableByteChannel) - Channel to write to, in blocking mode
+     * @throws AssertionError if one of the parameters is null or the image is closed
+     * @throws IOException if the channel cannot be written
+     */
+    public static void encode(QOIOffHeapImage image, WritableByteChannel output) throws IOException {
+        assert image != null;
+        var row = new int[image.width()];
+        try (var encoder = new QOIStreamEncoder(output, image.width(), image.height(), image.channels(), image.colorSpace())){
+            for (var y = 0; y < image.height(); ++y){
+                image.getRow(y, row);
+                encoder.writeRow(row);
+            }
+            encoder.finish();
+        }
+    }
+
+    /**
+     * Encode a whole image in the given buffer, starting at its position
+     * @param image (Helper.Image) - Image to encode
+     * @param output (ByteBuffer) - Buffer to write in
+     * @throws AssertionError if one of the parameters is null
+     * @throws BufferOverflowException if the buffer is too small
+     */
+    public static void encode(Helper.Image image, ByteBuffer output){
+        assert image != null;
+        try (var encoder = new QOIStreamEncoder(output, image.data()[0].length, image.data().length, image.channels(), image.color_space())){
+            encoder.writeRows(image.data());
+            encoder.finish();
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ==================================================================================
+    // ================================= OUTPUT METHODS =================================
+    // ==================================================================================
+
+    private void flush() throws IOException {
+        if (count > 0){
+            sink.write(buffer, count);
+            written += count;
+            count = 0;
+        }
+    }
+
+    /**
+     * Destination of the encoded bytes
+     */
+    private interface Sink {
+        void write(byte[] bytes, int length) throws IOException;
+    }
+
+    private static Sink streamSink(OutputStream output){
+        assert output != null;
+        return (bytes, length) -> output.write(bytes, 0, length);
+    }
+
+    private static Sink bufferSink(ByteBuffer output){
+        assert output != null;
+        return (bytes, length) -> output.put(bytes, 0, length);
+    }
+
+    private static Sink channelSink(WritableByteChannel output){
+        assert output != null;
+        if (output instanceof SelectableChannel selectable && !selectable.isBlocking())
+            throw new IllegalArgumentException("The channel must be in blocking mode");
+        return (bytes, length) -> {
+            var view = ByteBuffer.wrap(bytes, 0, length);
+            while (view.hasRemaining()){
+                // A blocking write writes at least one byte, retrying would spin forever
+                if (output.write(view) == 0)
+                    throw new IOException("No bytes were written, the output is not blocking");
+            }
+        };
+    }
+
+}
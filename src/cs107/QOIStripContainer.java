@@ -0,0 +1,228 @@
+package cs107;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Opt-in container splitting an image in horizontal strips encoded independently.
+ * Every strip starts with a fresh previous pixel and index, so the strips can be
+ * encoded and decoded in parallel. The layout of the container is :
+ * <pre>
+ * magic "qois" | width | height | channels | color space | strip height | strip count
+ * | offsets of the strips (strip count + 1 longs) | chunks of every strip | QOI_EOF
+ * </pre>
+ * It is not readable by a "Quite Ok Image" decoder, use {@link #toQoi(byte[])} for interop.
+ * @since 1.3
+ */
+public final class QOIStripContainer {
+
+    /**
+     * Magic Number of a strip container
+     */
+    public static final byte[] CONTAINER_MAGIC = new byte[]{'q', 'o', 'i', 's'};
+
+    /**
+     * Default number of rows per strip
+     */
+    public static final int DEFAULT_STRIP_HEIGHT = 64;
+
+    /**
+     * Size of the fixed part of the header, the offsets table follows it
+     */
+    private static final int HEADER_SIZE = CONTAINER_MAGIC.length + 4 + 4 + 1 + 1 + 4 + 4;
+
+    // Only static methods
+    private QOIStripContainer(){}
+
+    // ==================================================================================
+    // ================================ ENCODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Encode an image in a strip container, one task per strip
+     * @param image (Helper.Image) - Image to encode
+     * @param stripHeight (int) - Number of rows per strip
+     * @param pool (ForkJoinPool) - Pool running the tasks
+     * @return (byte[]) - Binary representation of the container
+     * @throws AssertionError if one of the parameters is null or the strip height is not positive
+     */
+    public static byte[] encode(Helper.Image image, int stripHeight, ForkJoinPool pool){
+        assert image != null && pool != null && stripHeight > 0;
+        var data = image.data();
+        var height = data.length;
+        var count = (height + stripHeight - 1) / stripHeight;
+        var strips = new byte[count][];
+        var tasks = new ForkJoinTask<?>[count];
+        for (var k = 0; k < count; ++k){
+            var strip = k;
+            tasks[k] = ForkJoinTask.adapt(() -> {
+                var from = strip * stripHeight;
+                strips[strip] = QOIEncoder.encodeData(Arrays.copyOfRange(data, from, Math.min(height, from + stripHeight)));
+            });
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+
+        var tableSize = (count + 1) * Long.BYTES;
+        var size = (long) HEADER_SIZE + tableSize + QOISpecification.QOI_EOF.length;
+        for (var strip : strips){
+            size += strip.length;
+        }
+        if (size > Integer.MAX_VALUE - 8)
+            return Helper.fail("The container would be too large : %d bytes", size);
+        var output = ByteBuffer.allocate((int) size);
+        output.put(CONTAINER_MAGIC).putInt(data[0].length).putInt(height)
+                .put(image.channels()).put(image.color_space())
+                .putInt(stripHeight).putInt(count);
+        var offset = (long) HEADER_SIZE + tableSize;
+        for (var strip : strips){
+            output.putLong(offset);
+            offset += strip.length;
+        }
+        output.putLong(offset);
+        for (var strip : strips){
+            output.put(strip);
+        }
+        output.put(QOISpecification.QOI_EOF);
+        return output.array();
+    }
+
+    // ==================================================================================
+    // ================================ DECODING METHODS ================================
+    // ==================================================================================
+
+    /**
+     * Check if the given content starts like a strip container
+     * @param content (byte[]) - Content of a file
+     * @return (boolean) - true if the content starts with {@link #CONTAINER_MAGIC}
+     */
+    public static boolean isContainer(byte[] content){
+        return content != null && content.length >= HEADER_SIZE
+                && Arrays.equals(content, 0, CONTAINER_MAGIC.length, CONTAINER_MAGIC, 0, CONTAINER_MAGIC.length);
+    }
+
+    /**
+     * Decode a strip container, one task per strip
+     * @param content (byte[]) - Binary representation of the container
+     * @param pool (ForkJoinPool) - Pool running the tasks
+     * @return (Helper.Image) - Decoded image
+     * @throws AssertionError if one of the parameters is null
+     * @throws RuntimeException if the container is corrupted
+     */
+    public static Helper.Image decode(byte[] content, ForkJoinPool pool){
+        assert content != null && pool != null;
+        var layout = Layout.read(content);
+        var rows = new int[layout.height][layout.width];
+        var tasks = new ForkJoinTask<?>[layout.count];
+        for (var k = 0; k < layout.count; ++k){
+            var strip = k;
+            tasks[k] = ForkJoinTask.adapt(() -> layout.decodeStrip(content, strip, rows, strip * layout.stripHeight));
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+        return Helper.generateImage(rows, layout.channels, layout.colorSpace);
+    }
+
+    // ==================================================================================
+    // ================================ REPACKING METHODS ===============================
+    // ==================================================================================
+
+    /**
+     * Repack a strip container to a plain "Quite Ok Image" file
+     * @param content (byte[]) - Binary representation of the container
+     * @return (byte[]) - The equivalent "Quite Ok Image" file
+     * @throws AssertionError if content is null
+     * @throws RuntimeException if the container is corrupted
+     */
+    public static byte[] toQoi(byte[] content){
+        var output = new ByteArrayOutputStream();
+        try {
+            toQoi(content, output);
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Repack a strip container to a plain "Quite Ok Image" file, one strip at a time
+     * @param content (byte[]) - Binary representation of the container
+     * @param output (OutputStream) - Stream where to write the file
+     * @throws AssertionError if one of the parameters is null
+     * @throws RuntimeException if the container is corrupted
+     * @throws IOException if the stream cannot be written
+     */
+    public static void toQoi(byte[] content, OutputStream output) throws IOException {
+        assert content != null && output != null;
+        var layout = Layout.read(content);
+        var rows = new int[Math.min(layout.stripHeight, layout.height)][layout.width];
+        try (var encoder = new QOIStreamEncoder(output, layout.width, layout.height, layout.channels, layout.colorSpace)){
+            for (var k = 0; k < layout.count; ++k){
+                var n = layout.decodeStrip(content, k, rows, 0);
+                for (var y = 0; y < n; ++y){
+                    encoder.writeRow(rows[y]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Header of a strip container
+     */
+    private record Layout(int width, int height, byte channels, byte colorSpace, int stripHeight, int count, long[] offsets) {
+
+        private static Layout read(byte[] content){
+            if (!isContainer(content))
+                return Helper.fail("Invalid strip container magic number");
+            var input = ByteBuffer.wrap(content, CONTAINER_MAGIC.length, content.length - CONTAINER_MAGIC.length);
+            var width = input.getInt();
+            var height = input.getInt();
+            var channels = input.get();
+            var colorSpace = input.get();
+            var stripHeight = input.getInt();
+            var count = input.getInt();
+            if (width <= 0 || height <= 0 || stripHeight <= 0 || count != (height + (long) stripHeight - 1) / stripHeight)
+                return Helper.fail("Corrupted strip container header");
+            if (channels != QOISpecification.RGB && channels != QOISpecification.RGBA)
+                return Helper.fail("Invalid number of channels : %d", channels);
+            if (colorSpace != QOISpecification.sRGB && colorSpace != QOISpecification.ALL)
+                return Helper.fail("Invalid color space : %d", colorSpace);
+            if (input.remaining() < (count + 1L) * Long.BYTES)
+                return Helper.fail("Truncated strip container offsets");
+            var offsets = new long[count + 1];
+            for (var k = 0; k <= count; ++k){
+                offsets[k] = input.getLong();
+                var minimum = k == 0 ? HEADER_SIZE + (count + 1L) * Long.BYTES : offsets[k - 1];
+                if (offsets[k] < minimum || offsets[k] > content.length)
+                    return Helper.fail("Corrupted strip container offsets");
+            }
+            QOIDecoder.checkEof(content, (int) offsets[count]);
+            return new Layout(width, height, channels, colorSpace, stripHeight, count, offsets);
+        }
+
+        /**
+         * Decode a strip in the given rows, starting at rows[target]
+         * @return (int) - The number of decoded rows
+         */
+        private int decodeStrip(byte[] content, int strip, int[][] rows, int target){
+            var from = strip * stripHeight;
+            var n = Math.min(stripHeight, height - from);
+            var state = new QOIDecoderState();
+            state.position = (int) offsets[strip];
+            var limit = (int) offsets[strip + 1];
+            for (var y = 0; y < n; ++y){
+                state.decodeFully(content, limit, rows[target + y], 0, width);
+            }
+            state.checkComplete();
+            if (state.position != limit)
+                Helper.fail("Strip %d contains more data than pixels", strip);
+            return n;
+        }
+
+    }
+
+}
@@ -0,0 +1,198 @@
+package cs107;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Checks that "Quite Ok Image" files are well formed without decoding them : the header is valid,
+ * the chunks describe exactly width * height pixels and are followed by the "QOI_EOF".
+ * Only the number of pixels left is tracked, the colors are never computed, so the memory used
+ * does not depend on the size of the image. A file is valid if and only if
+ * {@link QOIDecoder#decodeQoiFile(Path)} can decode it.
+ * @since 1.3
+ */
+public final class QOIValidator {
+
+    /**
+     * Outcome of a validation
+     * @param offset (long) - Index of the first invalid byte, -1 if the file is valid
+     * @param error (String) - Why the file is invalid, null if it is valid
+     */
+    public record Report(long offset, String error) {
+
+        private static final Report VALID = new Report(-1, null);
+
+        /**
+         * @return (boolean) - true if the file is valid
+         */
+        public boolean valid(){
+            return error == null;
+        }
+
+    }
+
+    /**
+     * Number of bytes of a file mapped at once
+     */
+    private static final long WINDOW_SIZE = 1 << 30;
+
+    /**
+     * Number of bytes validated chunk by chunk after the fast path failed
+     */
+    private static final int BACKOFF = 128;
+
+    private static final long ONES = 0x01_01_01_01_01_01_01_01L;
+    private static final long HIGHS = 0x80_80_80_80_80_80_80_80L;
+
+    // Only static methods
+    private QOIValidator(){}
+
+    // ==================================================================================
+    // =============================== VALIDATION METHODS ===============================
+    // ==================================================================================
+
+    /**
+     * Validate the content of a file
+     * @param content (byte[]) - Content of a "Quite Ok Image" file
+     * @return (Report) - Outcome of the validation
+     * @throws AssertionError if content is null
+     */
+    public static Report validate(byte[] content){
+        assert content != null;
+        try {
+            return validate((position, length) -> ByteBuffer.wrap(content, (int) position, (int) length).slice(), content.length);
+        } catch (IOException e){
+            throw new AssertionError(e); // An array is never read through I/O
+        }
+    }
+
+    /**
+     * Validate a file, mapping it piece by piece. Files larger than 2 GiB are supported.
+     * @param file (Path) - "Quite Ok Image" file
+     * @return (Report) - Outcome of the validation
+     * @throws AssertionError if file is null
+     * @throws IOException if the file cannot be mapped
+     */
+    public static Report validate(Path file) throws IOException {
+        assert file != null;
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)){
+            return validate((position, length) -> channel.map(FileChannel.MapMode.READ_ONLY, position, length), channel.size());
+        }
+    }
+
+    private static Report validate(Source source, long size) throws IOException {
+        if (size < QOISpecification.HEADER_SIZE)
+            return new Report(size, "The content is too small to be a \"Quite Ok Image\"");
+        var header = source.map(0, QOISpecification.HEADER_SIZE);
+        var error = checkHeader(header);
+        if (error != null)
+            return error;
+        var remaining = (long) header.getInt(4) * header.getInt(8);
+        var position = (long) QOISpecification.HEADER_SIZE;
+        var last = position;
+        while (remaining > 0){
+            var length = Math.min(WINDOW_SIZE, size - position);
+            if (length == 0)
+                return new Report(position, "Unexpected end of data");
+            var window = source.map(position, length);
+            var limit = window.limit();
+            var p = 0;
+            walk:
+            while (remaining > 0 && p < limit){
+                // Fast path : 8 chunks of a single byte at once, which is the common case of smooth images
+                while (remaining >= 8 * QOISpecification.QOI_OP_RUN_MAX && p <= limit - Long.BYTES){
+                    var x = window.getLong(p);
+                    if (!singleByteChunks(x))
+                        break;
+                    remaining -= pixels(x);
+                    p += Long.BYTES;
+                }
+                // Slow path : chunk by chunk, for a while before trying the fast path again
+                var stop = Math.min(p + BACKOFF, limit);
+                while (remaining > 0 && p < stop){
+                    var b1 = window.get(p) & 0xFF;
+                    var chunk = QOIDecoderState.chunkSize(b1);
+                    if (p + chunk > limit)
+                        break walk;
+                    last = position + p;
+                    remaining -= QOIDecoderState.chunkPixels(b1);
+                    p += chunk;
+                }
+            }
+            if (p == 0 || remaining > 0 && position + limit == size)
+                return new Report(position + p, "Unexpected end of data");
+            position += p;
+        }
+        if (remaining < 0)
+            return new Report(last, "The data contains more pixels than the image");
+        var eof = QOISpecification.QOI_EOF;
+        if (size - position < eof.length)
+            return new Report(position, "Expected \"QOI_EOF\"");
+        var end = source.map(position, eof.length);
+        for (var i = 0; i < eof.length; ++i){
+            if (end.get(i) != eof[i])
+                return new Report(position + i, "Invalid \"QOI_EOF\"");
+        }
+        return Report.VALID;
+    }
+
+    /**
+     * Check that none of the 8 bytes starts a chunk of several bytes,
+     * i.e. that none of them is a "QOI_OP_LUMA" (0b10xxxxxx), "QOI_OP_RGB" or "QOI_OP_RGBA" tag
+     */
+    private static boolean singleByteChunks(long x){
+        var luma = x & ~(x << 1) & HIGHS;
+        var notWide = ~(x | ONES); // 0 in the bytes holding 0xFE or 0xFF
+        var wide = (notWide - ONES) & ~notWide & HIGHS;
+        return (luma | wide) == 0;
+    }
+
+    /**
+     * Number of pixels described by 8 chunks of a single byte :
+     * 1 for every chunk plus the length - 1 of every "QOI_OP_RUN"
+     */
+    private static long pixels(long x){
+        var runs = x & (x << 1) & HIGHS;
+        var lengths = x & 0x3F_3F_3F_3F_3F_3F_3F_3FL & (runs >>> 7) * 0xFF;
+        var pairs = (lengths & 0x00_FF_00_FF_00_FF_00_FFL) + (lengths >>> 8 & 0x00_FF_00_FF_00_FF_00_FFL);
+        return Long.BYTES + (pairs * 0x00_01_00_01_00_01_00_01L >>> 48);
+    }
+
+    /**
+     * Check the header, like {@link QOIDecoder#readHeader(byte[], int)} but reporting the invalid byte
+     * @return (Report) - The first error, null if the header is valid
+     */
+    private static Report checkHeader(ByteBuffer header){
+        for (var i = 0; i < QOISpecification.QOI_MAGIC.length; ++i){
+            if (header.get(i) != QOISpecification.QOI_MAGIC[i])
+                return new Report(i, "Invalid \"Quite Ok Image\" magic number");
+        }
+        if (header.getInt(4) <= 0)
+            return new Report(4, "Invalid image width : " + header.getInt(4));
+        if (header.getInt(8) <= 0)
+            return new Report(8, "Invalid image height : " + header.getInt(8));
+        var channels = header.get(12);
+        if (channels != QOISpecification.RGB && channels != QOISpecification.RGBA)
+            return new Report(12, "Invalid number of channels : " + channels);
+        var colorSpace = header.get(13);
+        if (colorSpace != QOISpecification.sRGB && colorSpace != QOISpecification.ALL)
+            return new Report(13, "Invalid color space : " + colorSpace);
+        return null;
+    }
+
+    /**
+     * Bytes of the content being validated
+     */
+    private interface Source {
+
+        /**
+         * @return (ByteBuffer) - The bytes [position, position + length), the first one at index 0
+         */
+        ByteBuffer map(long position, long length) throws IOException;
+
+    }
+
+}
@@ -0,0 +1,80 @@
+package cs107;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorSpecies;
+
+import static cs107.QOIEncoderState.DIFF;
+import static cs107.QOIEncoderState.LUMA;
+import static cs107.QOIEncoderState.RGB;
+import static cs107.QOIEncoderState.RGBA;
+import static cs107.QOIEncoderState.SAME;
+import static cs107.QOIEncoderState.code;
+import static cs107.QOISpecification.*;
+import static jdk.incubator.vector.VectorOperators.*;
+
+/**
+ * {@link QOIEncoderState.Classifier} using the Vector API : the hashes, the differences with
+ * the previous pixels and the kinds of chunks are computed for a whole vector of pixels at once.
+ * @apiNote jdk.incubator.vector is an incubator module, this class is compiled and run
+ *  with {@code --add-modules jdk.incubator.vector}. It is loaded by {@link QOIEncoderState}
+ *  when the system property {@link QOIEncoderState#BACKEND_PROPERTY} is "vector".
+ * @since 1.3
+ */
+final class QOIVectorClassifier implements QOIEncoderState.Classifier {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    QOIVectorClassifier(){}
+
+    @Override
+    public void classify(int[] pixels, int from, int n, int prev, int[] hashes, int[] codes){
+        if (n == 0)
+            return;
+        // The first pixel is compared with prev, the next ones with the pixel before them in the array
+        hashes[0] = hash(pixels[from]);
+        codes[0] = code(prev, pixels[from]);
+        var i = 1;
+        for (var bound = 1 + SPECIES.loopBound(n - 1); i < bound; i += SPECIES.length()){
+            var px = IntVector.fromArray(SPECIES, pixels, from + i);
+            var pv = IntVector.fromArray(SPECIES, pixels, from + i - 1);
+
+            // (r * 3 + g * 5 + b * 7 + a * 11) % 64
+            px.lanewise(LSHR, 16).and(0xFF).mul(3)
+                    .add(px.lanewise(LSHR, 8).and(0xFF).mul(5))
+                    .add(px.and(0xFF).mul(7))
+                    .add(px.lanewise(LSHR, 24).mul(11))
+                    .and(63)
+                    .intoArray(hashes, i);
+
+            // Differences wrapped around like bytes
+            var dr = px.lanewise(ASHR, 16).sub(pv.lanewise(ASHR, 16)).lanewise(LSHL, 24).lanewise(ASHR, 24);
+            var dg = px.lanewise(ASHR, 8).sub(pv.lanewise(ASHR, 8)).lanewise(LSHL, 24).lanewise(ASHR, 24);
+            var db = px.sub(pv).lanewise(LSHL, 24).lanewise(ASHR, 24);
+
+            var dr2 = dr.add(2);
+            var dg2 = dg.add(2);
+            var db2 = db.add(2);
+            var diff = dr2.or(dg2).or(db2).lanewise(LSHR, 2).eq(0);
+            var diffCode = dr2.lanewise(LSHL, 4).or(dg2.lanewise(LSHL, 2)).or(db2).or(DIFF | QOI_OP_DIFF_TAG);
+
+            var dg32 = dg.add(32);
+            var drg = dr.sub(dg).add(8);
+            var dbg = db.sub(dg).add(8);
+            var luma = dg32.lanewise(LSHR, 6).or(drg.lanewise(LSHR, 4)).or(dbg.lanewise(LSHR, 4)).eq(0);
+            var lumaCode = dg32.or(QOI_OP_LUMA_TAG & 0xFF).lanewise(LSHL, 8).or(drg.lanewise(LSHL, 4)).or(dbg).or(LUMA);
+
+            // Same priorities as QOIEncoderState.code : SAME, RGBA, DIFF, LUMA and RGB
+            IntVector.broadcast(SPECIES, RGB)
+                    .blend(lumaCode, luma)
+                    .blend(diffCode, diff)
+                    .blend(RGBA, px.lanewise(XOR, pv).lanewise(LSHR, 24).compare(NE, 0))
+                    .blend(SAME, px.eq(pv))
+                    .intoArray(codes, i);
+        }
+        for (; i < n; ++i){
+            hashes[i] = hash(pixels[from + i]);
+            codes[i] = code(pixels[from + i - 1], pixels[from + i]);
+        }
+    }
+
+}